@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Draws the board as text for terminals, for example when playing the console game over SSH.
+ * <P>
+ * Each square is drawn as 4 characters wide and 2 lines high: walls are drawn as | and ---,
+ * the player as @ and prizes as $. Traps stay hidden, as in the GUI. The top line shows the
+ * score.
+ * <P>
+ * All buffers are allocated when the board changes, so drawing a frame allocates nothing.
+ * With ANSI output only the lines that changed since the last frame are rewritten.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class AsciiRenderer
+{
+  private static final byte ESC = 27;
+  private static final char[] SCORE_LABEL = "Score: ".toCharArray();
+
+  private final OutputStream out;
+  private final boolean ansi;
+
+  private Board board;
+  // static lines (border and walls), the frame being drawn and the frame on screen
+  private char[][] base;
+  private char[][] frame;
+  private char[][] shown;
+  private byte[] outBuf;
+  private boolean clearScreen = true;
+
+  /**
+   * @param out where to write frames
+   * @param ansi true to redraw changed lines in place with ANSI cursor codes, false to print
+   *        every frame in full
+   */
+  public AsciiRenderer(OutputStream out, boolean ansi)
+  {
+    this.out = out;
+    this.ansi = ansi;
+  }
+
+  /**
+   * Draw the current state of a game.
+   * <P>
+   * @param view the game to draw
+   */
+  public void render(BoardView view) throws IOException
+  {
+    if (view.getBoard() != board)
+    {
+      setBoard(view.getBoard());
+    }
+
+    for (int i = 0; i < frame.length; i++)
+    {
+      System.arraycopy(base[i], 0, frame[i], 0, base[i].length);
+    }
+    drawScore(frame[0], view.getScore());
+    int cols = board.getCols();
+    for (int i = 0; i < board.getTotalPrizes(); i++)
+    {
+      if (view.prizeAlive(i))
+      {
+        put(board.prizeSquare(i) % cols, board.prizeSquare(i) / cols, '$');
+      }
+    }
+    if (view.getCol() < cols)
+    {
+      put(view.getCol(), view.getRow(), '@');
+    }
+
+    int len = 0;
+    if (ansi && clearScreen)
+    {
+      len = putEsc(len, '2', 'J');
+      clearScreen = false;
+    }
+    for (int i = 0; i < frame.length; i++)
+    {
+      if (ansi && java.util.Arrays.equals(frame[i], shown[i])) continue;
+      if (ansi)
+      {
+        // move the cursor to the start of line i+1
+        outBuf[len++] = ESC;
+        outBuf[len++] = '[';
+        len = putInt(len, i + 1);
+        outBuf[len++] = ';';
+        outBuf[len++] = '1';
+        outBuf[len++] = 'H';
+      }
+      char[] line = frame[i];
+      for (int c = 0; c < line.length; c++)
+      {
+        outBuf[len++] = (byte)line[c];
+      }
+      if (ansi)
+      {
+        len = putEsc(len, 'K', (char)0);
+      }
+      outBuf[len++] = '\n';
+      System.arraycopy(line, 0, shown[i], 0, line.length);
+    }
+    if (ansi)
+    {
+      // park the cursor below the board so console prompts appear there
+      outBuf[len++] = ESC;
+      outBuf[len++] = '[';
+      len = putInt(len, frame.length + 1);
+      outBuf[len++] = ';';
+      outBuf[len++] = '1';
+      outBuf[len++] = 'H';
+    }
+    out.write(outBuf, 0, len);
+    out.flush();
+  }
+
+  /**
+   * Forget what is on screen so the next frame is drawn in full, for example after other
+   * output scrolled the board away.
+   */
+  public void invalidate()
+  {
+    clearScreen = true;
+    if (shown == null) return;
+    for (char[] line : shown)
+    {
+      java.util.Arrays.fill(line, (char)0);
+    }
+  }
+
+  /*------------------- private methods -------------------*/
+
+  /*
+   * Build the lines that only change with the board: outer border and walls.
+   */
+  private void setBoard(Board b)
+  {
+    board = b;
+    int cols = b.getCols();
+    int rows = b.getRows();
+    int width = Math.max(cols * 4 + 1, SCORE_LABEL.length + 12);
+    int height = 1 + rows * 2 + 1;
+    base = new char[height][width];
+    frame = new char[height][width];
+    shown = new char[height][width];
+    // worst case every line rewritten with cursor codes, plus clear screen and final cursor move
+    outBuf = new byte[height * (width + 16) + 32];
+    invalidate();
+
+    for (char[] line : base)
+    {
+      java.util.Arrays.fill(line, ' ');
+    }
+    for (int r = 0; r <= rows; r++)
+    {
+      char[] line = base[1 + r * 2];
+      for (int c = 0; c <= cols; c++)
+      {
+        line[c * 4] = '+';
+        if (c < cols && (r == 0 || r == rows || b.blocked(c + (r - 1) * cols, 0, 1)))
+        {
+          line[c * 4 + 1] = '-';
+          line[c * 4 + 2] = '-';
+          line[c * 4 + 3] = '-';
+        }
+      }
+    }
+    for (int r = 0; r < rows; r++)
+    {
+      char[] line = base[2 + r * 2];
+      line[0] = '|';
+      for (int c = 0; c < cols; c++)
+      {
+        if (b.blocked(c + r * cols, 1, 0))
+        {
+          line[c * 4 + 4] = '|';
+        }
+      }
+    }
+  }
+
+  private void put(int col, int row, char ch)
+  {
+    frame[2 + row * 2][col * 4 + 2] = ch;
+  }
+
+  private void drawScore(char[] line, int score)
+  {
+    System.arraycopy(SCORE_LABEL, 0, line, 0, SCORE_LABEL.length);
+    int pos = SCORE_LABEL.length;
+    long v = score;
+    if (v < 0)
+    {
+      line[pos++] = '-';
+      v = -v;
+    }
+    int digits = 1;
+    for (long t = v; t >= 10; t /= 10) digits++;
+    for (int d = digits - 1; d >= 0; d--)
+    {
+      line[pos + d] = (char)('0' + v % 10);
+      v /= 10;
+    }
+  }
+
+  private int putInt(int len, int v)
+  {
+    int digits = 1;
+    for (int t = v; t >= 10; t /= 10) digits++;
+    for (int d = digits - 1; d >= 0; d--)
+    {
+      outBuf[len + d] = (byte)('0' + v % 10);
+      v /= 10;
+    }
+    return len + digits;
+  }
+
+  private int putEsc(int len, char a, char b)
+  {
+    outBuf[len++] = ESC;
+    outBuf[len++] = '[';
+    outBuf[len++] = (byte)a;
+    if (b != 0) outBuf[len++] = (byte)b;
+    return len;
+  }
+}
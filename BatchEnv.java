@@ -0,0 +1,349 @@
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Many games played side by side for training agents, moved all at once by one call to
+ * step(). Every game has its own board, but all boards have the same size, at most 64
+ * squares. Nothing is kept per game as an object: every field of every game lives in one
+ * primitive array, and each board is turned into a table of where every move from every
+ * square ends up, so a step is a few array reads per game with no searching for walls.
+ * <P>
+ * Scores match a PlayerSession scored with the same ScoreRules. A game ends when the player
+ * escapes or runs out of steps, and is then scored like PlayerSession.end(). A game that
+ * ended starts again on the same board at the next step, so the actions always go to
+ * running games. Large batches are stepped on all cores.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class BatchEnv
+{
+  /** Actions: move one square, or spring a trap. */
+  public static final int RIGHT = 0;
+  public static final int LEFT = 1;
+  public static final int DOWN = 2;
+  public static final int UP = 3;
+  public static final int SPRING = 4;
+  public static final int ACTIONS = 5;
+
+  /** Most squares on a board. */
+  public static final int MAX_SQUARES = 64;
+
+  // where a move ends up, besides a square
+  private static final byte WALL = 64;
+  private static final byte OFF_GRID = 65;
+  private static final byte ESCAPE = 66;
+
+  // games stepped by one thread at a time
+  private static final int CHUNK = 2048;
+
+  private final int n;
+  private final int cols;
+  private final int rows;
+  private final int squares;
+  private final int maxSteps;
+
+  // scores, looked up once
+  private final int prizeStep;
+  private final int trapSprung;
+  private final int trapMissing;
+  private final int trapExpired;
+  private final int hitWall;
+  private final int offGrid;
+  private final int endReached;
+  private final int endEarly;
+
+  // per game and square, per move: the square moved to, or WALL, OFF_GRID or ESCAPE
+  private final byte[] next;
+  // per game and square: prizes and traps at the start, and left now
+  private final byte[] prizeStart;
+  private final byte[] trapStart;
+  private final byte[] prizes;
+  private final byte[] traps;
+  // per game
+  private final int[] square;
+  private final int[] steps;
+  private final int[] score;
+  private final boolean[] pending;
+  private final int[] rewards;
+  private final boolean[] done;
+
+  /**
+   * Make n games, all on boards of the same size. Every game gets a board of its own from a
+   * seed and the given counts; use setBoard to play others.
+   * <P>
+   * @param n number of games
+   * @param seed seed of the first board; the others use the following seeds
+   * @param cols squares across
+   * @param rows squares down, with cols * rows at most 64
+   * @param walls walls per board
+   * @param traps traps per board
+   * @param prizes prizes per board
+   * @param maxSteps steps before a game is stopped
+   * @param rules how much everything scores
+   */
+  public BatchEnv(int n, long seed, int cols, int rows, int walls, int traps, int prizes, int maxSteps, ScoreRules rules)
+  {
+    if (cols * rows > MAX_SQUARES)
+    {
+      throw new IllegalArgumentException("boards can have at most " + MAX_SQUARES + " squares: " + cols + "x" + rows);
+    }
+    this.n = n;
+    this.cols = cols;
+    this.rows = rows;
+    this.squares = cols * rows;
+    this.maxSteps = maxSteps;
+    prizeStep = rules.delta(ScoreEvent.PRIZE_STEP);
+    trapSprung = rules.delta(ScoreEvent.TRAP_SPRUNG);
+    trapMissing = rules.delta(ScoreEvent.TRAP_MISSING);
+    trapExpired = rules.delta(ScoreEvent.TRAP_EXPIRED);
+    hitWall = rules.delta(ScoreEvent.HIT_WALL);
+    offGrid = rules.delta(ScoreEvent.OFF_GRID);
+    endReached = rules.delta(ScoreEvent.END_REACHED);
+    endEarly = rules.delta(ScoreEvent.END_EARLY);
+
+    next = new byte[n * squares * 4];
+    prizeStart = new byte[n * squares];
+    trapStart = new byte[n * squares];
+    this.prizes = new byte[n * squares];
+    this.traps = new byte[n * squares];
+    square = new int[n];
+    steps = new int[n];
+    score = new int[n];
+    pending = new boolean[n];
+    rewards = new int[n];
+    done = new boolean[n];
+    for (int e = 0; e < n; e++)
+    {
+      setBoard(e, Board.generate(seed + e, cols, rows, walls, traps, prizes));
+    }
+  }
+
+  /**
+   * Play a game on another board, starting over.
+   * <P>
+   * precondition: the board has the size given to the constructor
+   * <P>
+   * @param e game number
+   * @param board the board
+   */
+  public void setBoard(int e, Board board)
+  {
+    if (board.getCols() != cols || board.getRows() != rows)
+    {
+      throw new IllegalArgumentException("board must be " + cols + "x" + rows);
+    }
+    int base = e * squares;
+    for (int s = 0; s < squares; s++)
+    {
+      int c = s % cols;
+      int r = s / cols;
+      int at = (base + s) * 4;
+      next[at + RIGHT] = c + 1 == cols ? (board.exitBlocked(r) ? WALL : ESCAPE)
+          : board.blocked(s, 1, 0) ? WALL : (byte)(s + 1);
+      next[at + LEFT] = c == 0 ? OFF_GRID : board.blocked(s, -1, 0) ? WALL : (byte)(s - 1);
+      next[at + DOWN] = r + 1 == rows ? OFF_GRID : board.blocked(s, 0, 1) ? WALL : (byte)(s + cols);
+      next[at + UP] = r == 0 ? OFF_GRID : board.blocked(s, 0, -1) ? WALL : (byte)(s - cols);
+      prizeStart[base + s] = 0;
+      trapStart[base + s] = 0;
+    }
+    for (int i = 0; i < board.getTotalPrizes(); i++)
+    {
+      prizeStart[base + board.prizeSquare(i)]++;
+    }
+    for (int i = 0; i < board.getTotalTraps(); i++)
+    {
+      trapStart[base + board.trapSquare(i)]++;
+    }
+    reset(e);
+  }
+
+  /**
+   * Start a game over on its board.
+   * <P>
+   * @param e game number
+   */
+  public void reset(int e)
+  {
+    System.arraycopy(prizeStart, e * squares, prizes, e * squares, squares);
+    System.arraycopy(trapStart, e * squares, traps, e * squares, squares);
+    square[e] = 0;
+    steps[e] = 0;
+    score[e] = 0;
+    pending[e] = false;
+  }
+
+  /**
+   * Give every game one action. Afterwards getRewards() holds the change in score of every
+   * game and getDone() tells which games ended; those have already started over.
+   * <P>
+   * @param actions one action per game, RIGHT to SPRING
+   * @throws IllegalArgumentException if there is not one action per game or an action is
+   *         not one of the ACTIONS
+   */
+  public void step(int[] actions)
+  {
+    // checked once here so the loop over the games does not have to
+    if (actions.length != n)
+    {
+      throw new IllegalArgumentException("need one action per game, " + n + ": " + actions.length);
+    }
+    for (int a : actions)
+    {
+      if (a < 0 || a >= ACTIONS)
+      {
+        throw new IllegalArgumentException("actions must be between 0 and " + (ACTIONS - 1) + ": " + a);
+      }
+    }
+    int chunks = (n + CHUNK - 1) / CHUNK;
+    if (chunks == 1)
+    {
+      step(actions, 0, n);
+    }
+    else
+    {
+      IntStream.range(0, chunks).parallel().forEach(c -> step(actions, c * CHUNK, Math.min(n, (c + 1) * CHUNK)));
+    }
+  }
+
+  public int size() { return n; }
+  public int getCols() { return cols; }
+  public int getRows() { return rows; }
+
+  /** @return the change in score of every game at the last step; reused by every step */
+  public int[] getRewards() { return rewards; }
+
+  /** @return which games ended at the last step; reused by every step */
+  public boolean[] getDone() { return done; }
+
+  /**
+   * @param e game number
+   * @return the square the player is on, col + row * cols
+   */
+  public int getSquare(int e) { return square[e]; }
+
+  public int getScore(int e) { return score[e]; }
+  public int getSteps(int e) { return steps[e]; }
+
+  /**
+   * @param e game number
+   * @return true if the player stands on a trap that goes off unless sprung now
+   */
+  public boolean hasPendingTrap(int e) { return pending[e]; }
+
+  /**
+   * @param e game number
+   * @return one bit per square that still has a prize
+   */
+  public long prizeMask(int e)
+  {
+    long mask = 0;
+    for (int s = 0; s < squares; s++)
+    {
+      if (prizes[e * squares + s] > 0) mask |= 1L << s;
+    }
+    return mask;
+  }
+
+  /*------------------- private methods -------------------*/
+
+  /*
+   * Step games from up to (but not including) to. Every game is independent, so chunks can
+   * run at the same time.
+   */
+  private void step(int[] actions, int from, int to)
+  {
+    for (int e = from; e < to; e++)
+    {
+      int base = e * squares;
+      int s = square[e];
+      int a = actions[e];
+      int reward = 0;
+      boolean ended = false;
+
+      if (a == SPRING)
+      {
+        // springs any trap still on the square, waiting or not
+        boolean sprung = traps[base + s] > 0;
+        traps[base + s] -= sprung ? 1 : 0;
+        reward = sprung ? trapSprung : trapMissing;
+        pending[e] = false;
+      }
+      else
+      {
+        if (pending[e])
+        {
+          traps[base + s]--;
+          reward = trapExpired;
+          pending[e] = false;
+        }
+        steps[e]++;
+        int t = next[(base + s) * 4 + a];
+        if (t < WALL)
+        {
+          s = t;
+          pending[e] = traps[base + s] > 0;
+          boolean prize = prizes[base + s] > 0;
+          prizes[base + s] -= prize ? 1 : 0;
+          reward += prize ? prizeStep : 0;
+        }
+        else
+        {
+          reward += t == WALL ? hitWall : t == OFF_GRID ? offGrid : endReached;
+          ended = t == ESCAPE;
+        }
+      }
+      if (!ended && steps[e] >= maxSteps)
+      {
+        // ending in the last column counts as reaching the end, as in PlayerSession
+        reward += (pending[e] ? trapExpired : 0) + (s % cols == cols - 1 ? endReached : endEarly);
+        ended = true;
+      }
+
+      rewards[e] = reward;
+      done[e] = ended;
+      if (ended)
+      {
+        reset(e);
+      }
+      else
+      {
+        square[e] = s;
+        score[e] += reward;
+      }
+    }
+  }
+
+  /**
+   * Measure steps per second with random actions.
+   * <P>
+   * Usage: java BatchEnv [games] [seconds]
+   */
+  public static void main(String[] args)
+  {
+    int games = args.length > 0 ? Integer.parseInt(args[0]) : 65536;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    BatchEnv env = new BatchEnv(games, 1, 8, 5, 20, 5, 3, 200, ScoreRules.get());
+    Random rand = new Random(1);
+    int[][] actions = new int[64][games];
+    for (int[] batch : actions)
+    {
+      for (int e = 0; e < games; e++)
+      {
+        batch[e] = rand.nextInt(ACTIONS);
+      }
+    }
+    long stepped = 0;
+    long start = System.nanoTime();
+    long deadline = start + seconds * 1000000000L;
+    int k = 0;
+    while (System.nanoTime() < deadline)
+    {
+      env.step(actions[k++ & 63]);
+      stepped += games;
+    }
+    double secs = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%d games on %d cores: %.1f million steps/s%n", games,
+        Runtime.getRuntime().availableProcessors(), stepped / secs / 1e6);
+  }
+}
@@ -0,0 +1,173 @@
+import java.util.Random;
+
+/**
+ * The layout of one escape room: walls, prizes and traps, generated from a seed. A board never
+ * changes after it is created, so one board can be shared by any number of games and threads.
+ * What changes while playing (player location, picked up prizes, sprung traps) is kept by
+ * each game, for example in a PlayerSession.
+ * <P>
+ * Squares are numbered col + row * cols. Walls sit on the edge between two squares and are
+ * indexed by the square on their left (east walls) or above them (south walls).
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public final class Board
+{
+  private final long seed;
+  private final int cols;
+  private final int rows;
+
+  private final int[] wallCol;
+  private final int[] wallRow;
+  private final boolean[] wallVertical;
+  private final int[] prizeSquare;
+  private final int[] trapSquare;
+
+  // edge index: true if a wall blocks the way out of a square to the east/south
+  private final boolean[] blockEast;
+  private final boolean[] blockSouth;
+
+  private Board(long seed, int cols, int rows, int totalWalls, int totalTraps, int totalPrizes)
+  {
+    this.seed = seed;
+    this.cols = cols;
+    this.rows = rows;
+    wallCol = new int[totalWalls];
+    wallRow = new int[totalWalls];
+    wallVertical = new boolean[totalWalls];
+    prizeSquare = new int[totalPrizes];
+    trapSquare = new int[totalTraps];
+    blockEast = new boolean[cols * rows];
+    blockSouth = new boolean[cols * rows];
+  }
+
+  /**
+   * Generate a board. Uses the random numbers in the same order as the original GameGUI
+   * board setup (traps, then prizes, then walls), so GameGUI and headless games built from
+   * the same seed see the same room.
+   * <P>
+   * @param seed seed for the random placement
+   * @param cols number of squares across
+   * @param rows number of squares down
+   * @param totalWalls number of walls
+   * @param totalTraps number of traps
+   * @param totalPrizes number of prizes
+   * @return the new board
+   */
+  public static Board generate(long seed, int cols, int rows, int totalWalls, int totalTraps, int totalPrizes)
+  {
+    Board b = new Board(seed, cols, rows, totalWalls, totalTraps, totalPrizes);
+    Random rand = new Random(seed);
+    for (int i = 0; i < totalTraps; i++)
+    {
+      int h = rand.nextInt(rows);
+      int w = rand.nextInt(cols);
+      b.trapSquare[i] = w + h * cols;
+    }
+    for (int i = 0; i < totalPrizes; i++)
+    {
+      int h = rand.nextInt(rows);
+      int w = rand.nextInt(cols);
+      b.prizeSquare[i] = w + h * cols;
+    }
+    for (int i = 0; i < totalWalls; i++)
+    {
+      int h = rand.nextInt(rows);
+      int w = rand.nextInt(cols);
+      b.wallCol[i] = w;
+      b.wallRow[i] = h;
+      b.wallVertical[i] = rand.nextInt(2) == 0;
+      if (b.wallVertical[i])
+      {
+        b.blockEast[w + h * cols] = true;
+      }
+      else
+      {
+        b.blockSouth[w + h * cols] = true;
+      }
+    }
+    return b;
+  }
+
+  public long getSeed() { return seed; }
+  public int getCols() { return cols; }
+  public int getRows() { return rows; }
+  public int getSquares() { return cols * rows; }
+
+  public int getTotalWalls() { return wallCol.length; }
+  public int getTotalPrizes() { return prizeSquare.length; }
+  public int getTotalTraps() { return trapSquare.length; }
+
+  public int wallCol(int i) { return wallCol[i]; }
+  public int wallRow(int i) { return wallRow[i]; }
+  public boolean wallVertical(int i) { return wallVertical[i]; }
+
+  /**
+   * @param i prize number
+   * @return the square prize i starts on
+   */
+  public int prizeSquare(int i) { return prizeSquare[i]; }
+
+  /**
+   * @param i trap number
+   * @return the square trap i is hidden on
+   */
+  public int trapSquare(int i) { return trapSquare[i]; }
+
+  /**
+   * Check whether a wall blocks a single step.
+   * <P>
+   * precondition: the square and its neighbor in the given direction are both on the board
+   * <P>
+   * @param square square to step from
+   * @param dc column change, -1, 0 or 1
+   * @param dr row change, -1, 0 or 1
+   * @return true if a wall is in the way
+   */
+  public boolean blocked(int square, int dc, int dr)
+  {
+    if (dc > 0) return blockEast[square];
+    if (dc < 0) return blockEast[square - 1];
+    if (dr > 0) return blockSouth[square];
+    if (dr < 0) return blockSouth[square - cols];
+    return false;
+  }
+
+  /**
+   * Walk in a straight line from a square and count how many steps can be taken before a wall
+   * or the edge of the board is in the way. Only the edges actually crossed are looked at, so
+   * the cost grows with the distance and not with the number of walls.
+   * <P>
+   * @param col starting column
+   * @param row starting row
+   * @param dc column change per step, -1, 0 or 1
+   * @param dr row change per step, -1, 0 or 1
+   * @param max most steps to take
+   * @return number of free steps, between 0 and max
+   */
+  public int clearRun(int col, int row, int dc, int dr, int max)
+  {
+    int n = 0;
+    while (n < max)
+    {
+      int nc = col + dc;
+      int nr = row + dr;
+      if (nc < 0 || nc >= cols || nr < 0 || nr >= rows) break;
+      if (blocked(col + row * cols, dc, dr)) break;
+      col = nc;
+      row = nr;
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Check whether a wall blocks the way off the right edge of the board from a square in the
+   * last column.
+   */
+  public boolean exitBlocked(int row)
+  {
+    return blockEast[cols - 1 + row * cols];
+  }
+}
@@ -0,0 +1,256 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps recently used boards together with what was worked out about them, so popular rooms
+ * are generated and analysed once instead of on every game. Boards are looked up by seed,
+ * size and number of walls, traps and prizes, which together decide the whole board.
+ * <P>
+ * The cache holds at most a given number of boards and a given number of squares in total;
+ * when either is exceeded the least recently used boards are dropped. Any number of threads
+ * can look up boards at the same time. When several ask for the same board that is not
+ * cached yet, one of them builds it and the others wait for that one instead of building it
+ * again.
+ * <P>
+ * Cached boards never change. The distance fields are shared too, so they must not be changed;
+ * use DistanceField.copy() first.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class BoardCache
+{
+  /**
+   * A cached board and what was worked out about it.
+   */
+  public static class Entry
+  {
+    private final Board board;
+    private final DistanceField distances;
+
+    Entry(Board board, DistanceField distances)
+    {
+      this.board = board;
+      this.distances = distances;
+    }
+
+    public Board getBoard() { return board; }
+
+    /**
+     * @return moves to the exit from every square; shared, so do not change it
+     */
+    public DistanceField getDistances() { return distances; }
+
+    /**
+     * @return the fewest moves from the start square to the exit, or
+     *         DistanceField.UNREACHABLE if the room cannot be escaped
+     */
+    public int getShortestEscape() { return distances.distance(0, 0); }
+  }
+
+  /*
+   * Everything that decides what a board looks like.
+   */
+  private static final class Key
+  {
+    final long seed;
+    final int cols;
+    final int rows;
+    final int walls;
+    final int traps;
+    final int prizes;
+
+    Key(long seed, int cols, int rows, int walls, int traps, int prizes)
+    {
+      this.seed = seed;
+      this.cols = cols;
+      this.rows = rows;
+      this.walls = walls;
+      this.traps = traps;
+      this.prizes = prizes;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Key)) return false;
+      Key k = (Key)o;
+      return seed == k.seed && cols == k.cols && rows == k.rows
+          && walls == k.walls && traps == k.traps && prizes == k.prizes;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      int h = Long.hashCode(seed);
+      h = 31 * h + cols;
+      h = 31 * h + rows;
+      h = 31 * h + walls;
+      h = 31 * h + traps;
+      return 31 * h + prizes;
+    }
+  }
+
+  private static BoardCache shared;
+
+  private final int maxBoards;
+  private final long maxSquares;
+  // least recently used first; guarded by itself
+  private final LinkedHashMap<Key, CompletableFuture<Entry>> entries =
+      new LinkedHashMap<Key, CompletableFuture<Entry>>(16, 0.75f, true);
+  private long squares = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong waits = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * @param maxBoards most boards kept
+   * @param maxSquares most squares kept, over all boards
+   */
+  public BoardCache(int maxBoards, long maxSquares)
+  {
+    if (maxBoards < 1 || maxSquares < 1)
+    {
+      throw new IllegalArgumentException("cache must hold at least one board and one square");
+    }
+    this.maxBoards = maxBoards;
+    this.maxSquares = maxSquares;
+  }
+
+  /**
+   * @return the cache shared by everything in this program: 1000 boards, a million squares
+   */
+  public static synchronized BoardCache shared()
+  {
+    if (shared == null)
+    {
+      shared = new BoardCache(1000, 1000000);
+    }
+    return shared;
+  }
+
+  /**
+   * Return a board and its analysis, generating them if they are not cached.
+   * <P>
+   * @param seed seed for the random placement
+   * @param cols number of squares across
+   * @param rows number of squares down
+   * @param walls number of walls
+   * @param traps number of traps
+   * @param prizes number of prizes
+   * @return the cached entry
+   */
+  public Entry get(long seed, int cols, int rows, int walls, int traps, int prizes)
+  {
+    Key key = new Key(seed, cols, rows, walls, traps, prizes);
+    CompletableFuture<Entry> future;
+    boolean build = false;
+    synchronized (entries)
+    {
+      future = entries.get(key);
+      if (future == null)
+      {
+        future = new CompletableFuture<Entry>();
+        entries.put(key, future);
+        squares += (long)cols * rows;
+        evict(key);
+        build = true;
+      }
+    }
+
+    if (build)
+    {
+      misses.incrementAndGet();
+      try
+      {
+        Board board = Board.generate(seed, cols, rows, walls, traps, prizes);
+        future.complete(new Entry(board, new DistanceField(board)));
+      }
+      catch (RuntimeException e)
+      {
+        // let the next caller try again
+        synchronized (entries)
+        {
+          if (entries.remove(key, future)) squares -= (long)cols * rows;
+        }
+        future.completeExceptionally(e);
+        throw e;
+      }
+    }
+    else if (future.isDone())
+    {
+      hits.incrementAndGet();
+    }
+    else
+    {
+      waits.incrementAndGet();
+    }
+    return future.join();
+  }
+
+  /**
+   * Drop every board.
+   */
+  public void clear()
+  {
+    synchronized (entries)
+    {
+      entries.clear();
+      squares = 0;
+    }
+  }
+
+  /**
+   * @return boards cached, including ones still being built
+   */
+  public int size()
+  {
+    synchronized (entries)
+    {
+      return entries.size();
+    }
+  }
+
+  /** @return lookups answered from the cache */
+  public long getHits() { return hits.get(); }
+
+  /** @return lookups that had to build the board */
+  public long getMisses() { return misses.get(); }
+
+  /** @return lookups that waited for another thread building the same board */
+  public long getWaits() { return waits.get(); }
+
+  /** @return boards dropped to make room */
+  public long getEvictions() { return evictions.get(); }
+
+  @Override
+  public String toString()
+  {
+    return "BoardCache: " + size() + " boards, " + hits.get() + " hits, " + misses.get() + " misses, "
+        + waits.get() + " waits, " + evictions.get() + " evictions";
+  }
+
+  /*------------------- private methods -------------------*/
+
+  /*
+   * Drop least recently used boards until the limits are kept, but never the one just added.
+   * Called holding the lock.
+   */
+  private void evict(Key keep)
+  {
+    Iterator<Map.Entry<Key, CompletableFuture<Entry>>> it = entries.entrySet().iterator();
+    while ((entries.size() > maxBoards || squares > maxSquares) && it.hasNext())
+    {
+      Key k = it.next().getKey();
+      if (k.equals(keep)) continue;
+      it.remove();
+      squares -= (long)k.cols * k.rows;
+      evictions.incrementAndGet();
+    }
+  }
+}
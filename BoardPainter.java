@@ -0,0 +1,154 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.geom.Path2D;
+import java.awt.image.ImageObserver;
+
+/**
+ * Draws the parts of a room that do not move on their own: the grid, the walls, the prizes
+ * still to be picked up, distance shading and the shortest way out. Used by GameGUI to paint
+ * the game and by ThumbnailRenderer to draw rooms off screen, so both look the same.
+ * <P>
+ * Everything is drawn at full size, SPACE_SIZE pixels per square, with the top left square at
+ * (0, 0); scale the graphics first for smaller pictures. The methods keep no state, so any
+ * number of threads can paint at the same time, each on its own graphics.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public final class BoardPainter
+{
+  /** Pixels per square. */
+  public static final int SPACE_SIZE = 60;
+
+  // prizes are drawn this far into their square
+  private static final int PRIZE_INSET = 15;
+  private static final Color GRID = new Color(200, 200, 200);
+  private static final Color PRIZE = new Color(230, 180, 0);
+  private static final Color PATH = new Color(0, 170, 0, 170);
+
+  private BoardPainter()
+  {
+  }
+
+  /**
+   * Draw the grid, walls and prizes of a game.
+   * <P>
+   * @param g graphics to draw on
+   * @param view the game; only prizes it still has are drawn
+   * @param background picture of the grid, or null to draw grid lines
+   * @param prizeImage picture of a prize, or null to draw a coin
+   * @param observer told when the pictures finish loading, may be null
+   */
+  public static void paintRoom(Graphics2D g, BoardView view, Image background, Image prizeImage, ImageObserver observer)
+  {
+    Board board = view.getBoard();
+    int width = board.getCols() * SPACE_SIZE;
+    int height = board.getRows() * SPACE_SIZE;
+
+    if (background != null)
+    {
+      g.drawImage(background, 0, 0, observer);
+    }
+    else
+    {
+      g.setColor(Color.WHITE);
+      g.fillRect(0, 0, width, height);
+      g.setColor(GRID);
+      for (int c = 0; c <= board.getCols(); c++)
+      {
+        g.drawLine(c * SPACE_SIZE, 0, c * SPACE_SIZE, height);
+      }
+      for (int r = 0; r <= board.getRows(); r++)
+      {
+        g.drawLine(0, r * SPACE_SIZE, width, r * SPACE_SIZE);
+      }
+    }
+
+    g.setColor(Color.BLACK);
+    for (int i = 0; i < board.getTotalWalls(); i++)
+    {
+      int wx = board.wallCol(i) * SPACE_SIZE;
+      int wy = board.wallRow(i) * SPACE_SIZE;
+      if (board.wallVertical(i))
+      {
+        g.fillRect(wx + SPACE_SIZE - 5, wy, 8, SPACE_SIZE);
+      }
+      else
+      {
+        g.fillRect(wx, wy + SPACE_SIZE - 5, SPACE_SIZE, 8);
+      }
+    }
+
+    for (int i = 0; i < board.getTotalPrizes(); i++)
+    {
+      if (!view.prizeAlive(i)) continue;
+      int s = board.prizeSquare(i);
+      int px = (s % board.getCols()) * SPACE_SIZE + PRIZE_INSET;
+      int py = (s / board.getCols()) * SPACE_SIZE + PRIZE_INSET;
+      if (prizeImage != null)
+      {
+        g.drawImage(prizeImage, px, py, observer);
+      }
+      else
+      {
+        g.setColor(PRIZE);
+        g.fillOval(px, py, 31, 31);
+      }
+    }
+  }
+
+  /**
+   * Shade squares by how far they are from the exit: the darker, the further.
+   * <P>
+   * @param g graphics to draw on
+   * @param distances distances of the room
+   */
+  public static void paintDistances(Graphics2D g, DistanceField distances)
+  {
+    for (int row = 0; row < distances.getRows(); row++)
+    {
+      for (int col = 0; col < distances.getCols(); col++)
+      {
+        int d = distances.distance(col, row);
+        int alpha = d == DistanceField.UNREACHABLE ? 200 : Math.min(180, 15 * d);
+        g.setColor(new Color(0, 0, 120, alpha));
+        g.fillRect(col * SPACE_SIZE, row * SPACE_SIZE, SPACE_SIZE, SPACE_SIZE);
+      }
+    }
+  }
+
+  /**
+   * Draw the shortest way out from a square, following the hints of a distance field.
+   * Nothing is drawn if there is no way out.
+   * <P>
+   * @param g graphics to draw on
+   * @param distances distances of the room
+   * @param col column to start from
+   * @param row row to start from
+   */
+  public static void paintPath(Graphics2D g, DistanceField distances, int col, int row)
+  {
+    int half = SPACE_SIZE / 2;
+    Path2D.Float path = new Path2D.Float();
+    path.moveTo(col * SPACE_SIZE + half, row * SPACE_SIZE + half);
+    boolean out = false;
+    // every move gets closer, so the way out is never longer than the start's distance
+    for (int i = distances.distance(col, row); i > 0 && !out; i--)
+    {
+      int move = distances.hint(col, row);
+      if (move < 0) return;
+      col += DistanceField.moveDc(move) * DistanceField.moveLength(move);
+      row += DistanceField.moveDr(move) * DistanceField.moveLength(move);
+      out = col >= distances.getCols();
+      // leaving through the exit ends at the edge of the room
+      int px = out ? distances.getCols() * SPACE_SIZE : col * SPACE_SIZE + half;
+      path.lineTo(px, row * SPACE_SIZE + half);
+    }
+    if (!out) return;
+    g.setColor(PATH);
+    g.setStroke(new BasicStroke(8, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+    g.draw(path);
+  }
+}
@@ -0,0 +1,212 @@
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * Boards made ahead of time so that starting a new game never waits for one. A background
+ * thread generates boards, works out their distance fields and keeps the ones that can be
+ * escaped, until the pool holds as many as will be needed soon: the faster boards are taken,
+ * the more are kept ready, up to the pool's capacity.
+ * <P>
+ * The pool makes boards for the size and counts of the last take() or prepare(). Asking for
+ * different counts (after setWalls, setTraps or setPrizes) throws away the boards made for the
+ * old ones and builds that board on the spot.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class BoardPool
+{
+  // how many seconds of boards to keep ready, at the rate they are being taken
+  private static final double READY_SECONDS = 5;
+  // weight of the newest time between takes in the average rate
+  private static final double ALPHA = 0.3;
+  // seeds tried for an escapable board before taking one anyway
+  private static final int MAX_TRIES = 100;
+
+  private final int capacity;
+  private final Random seeds = new Random();
+
+  // guarded by this
+  private final ArrayDeque<BoardCache.Entry> ready = new ArrayDeque<BoardCache.Entry>();
+  private int cols;
+  private int rows;
+  private int walls = -1;
+  private int traps;
+  private int prizes;
+  // changes with the counts, so boards made for old counts are not added
+  private int generation = 0;
+  private double rate = 0;
+  private long lastTake = 0;
+  private boolean closed = false;
+  private long hits = 0;
+  private long misses = 0;
+
+  /**
+   * @param capacity most boards kept ready
+   */
+  public BoardPool(int capacity)
+  {
+    this.capacity = capacity;
+    Thread producer = new Thread(this::produce, "board-pool");
+    producer.setDaemon(true);
+    producer.start();
+  }
+
+  /**
+   * Take a board that can be escaped. It comes from the pool if one is ready, otherwise it
+   * is made now.
+   * <P>
+   * @param cols squares across
+   * @param rows squares down
+   * @param walls number of walls
+   * @param traps number of traps
+   * @param prizes number of prizes
+   * @return the board and its distance field
+   */
+  public BoardCache.Entry take(int cols, int rows, int walls, int traps, int prizes)
+  {
+    synchronized (this)
+    {
+      configure(cols, rows, walls, traps, prizes);
+      long now = System.nanoTime();
+      if (lastTake != 0)
+      {
+        double perSecond = 1e9 / Math.max(1, now - lastTake);
+        rate = ALPHA * perSecond + (1 - ALPHA) * rate;
+      }
+      lastTake = now;
+      BoardCache.Entry entry = ready.poll();
+      // wake the producer to refill
+      notifyAll();
+      if (entry != null)
+      {
+        hits++;
+        return entry;
+      }
+      misses++;
+    }
+    return build(cols, rows, walls, traps, prizes);
+  }
+
+  /**
+   * Start making boards of the given size and counts before the first take().
+   */
+  public synchronized void prepare(int cols, int rows, int walls, int traps, int prizes)
+  {
+    configure(cols, rows, walls, traps, prizes);
+    notifyAll();
+  }
+
+  /**
+   * @return boards ready now
+   */
+  public synchronized int size()
+  {
+    return ready.size();
+  }
+
+  /**
+   * @return how many boards the pool is trying to keep ready
+   */
+  public synchronized int target()
+  {
+    if (walls < 0) return 0;
+    // the rate fades when nobody takes boards for a while
+    double idle = (System.nanoTime() - lastTake) / 1e9;
+    double r = Math.min(rate, 1 / Math.max(idle, 1e-9));
+    return (int)Math.max(1, Math.min(capacity, Math.ceil(r * READY_SECONDS)));
+  }
+
+  /** @return takes answered from the pool */
+  public synchronized long getHits() { return hits; }
+
+  /** @return takes that had to make a board on the spot */
+  public synchronized long getMisses() { return misses; }
+
+  /**
+   * Stop making boards.
+   */
+  public synchronized void close()
+  {
+    closed = true;
+    ready.clear();
+    notifyAll();
+  }
+
+  /*------------------- private methods -------------------*/
+
+  /*
+   * Switch to other counts, dropping the boards made for the old ones. Called holding the lock.
+   */
+  private void configure(int cols, int rows, int walls, int traps, int prizes)
+  {
+    if (cols != this.cols || rows != this.rows || walls != this.walls || traps != this.traps || prizes != this.prizes)
+    {
+      this.cols = cols;
+      this.rows = rows;
+      this.walls = walls;
+      this.traps = traps;
+      this.prizes = prizes;
+      generation++;
+      ready.clear();
+    }
+  }
+
+  /*
+   * The producer thread: make boards while fewer than the target are ready.
+   */
+  private void produce()
+  {
+    while (true)
+    {
+      int c, r, w, t, p, gen;
+      synchronized (this)
+      {
+        while (!closed && ready.size() >= target())
+        {
+          try
+          {
+            // the target shrinks over time, so look again now and then
+            wait(1000);
+          }
+          catch (InterruptedException e)
+          {
+            return;
+          }
+        }
+        if (closed) return;
+        c = cols;
+        r = rows;
+        w = walls;
+        t = traps;
+        p = prizes;
+        gen = generation;
+      }
+      BoardCache.Entry entry = build(c, r, w, t, p);
+      synchronized (this)
+      {
+        if (gen == generation && ready.size() < capacity) ready.add(entry);
+      }
+    }
+  }
+
+  /*
+   * Make a board that can be escaped, or the last one tried if none of them can.
+   */
+  private BoardCache.Entry build(int cols, int rows, int walls, int traps, int prizes)
+  {
+    BoardCache.Entry entry = null;
+    for (int i = 0; i < MAX_TRIES; i++)
+    {
+      long seed;
+      synchronized (seeds)
+      {
+        seed = seeds.nextLong();
+      }
+      Board board = Board.generate(seed, cols, rows, walls, traps, prizes);
+      entry = new BoardCache.Entry(board, new DistanceField(board));
+      if (entry.getShortestEscape() != DistanceField.UNREACHABLE) break;
+    }
+    return entry;
+  }
+}
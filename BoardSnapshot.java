@@ -0,0 +1,85 @@
+/**
+ * An unchangeable picture of the parts of a game that change while playing: player location,
+ * score, steps, and which prizes and traps are still on the board.
+ * <P>
+ * The prize and trap bits are stored as arrays of longs that are shared between snapshots
+ * whenever they did not change, so a move that only changes the player location costs a few
+ * ints and no copy of the board.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public final class BoardSnapshot
+{
+  private final int x;
+  private final int y;
+  private final int score;
+  private final int steps;
+  private final long[] prizeBits;
+  private final long[] trapBits;
+
+  private BoardSnapshot(int x, int y, int score, int steps, long[] prizeBits, long[] trapBits)
+  {
+    this.x = x;
+    this.y = y;
+    this.score = score;
+    this.steps = steps;
+    this.prizeBits = prizeBits;
+    this.trapBits = trapBits;
+  }
+
+  /**
+   * Create a snapshot, sharing the bit arrays of a previous snapshot when they are equal.
+   * <P>
+   * @param prev previous snapshot to share with, may be null
+   * @param prizeAlive which prizes are still on the board
+   * @param trapAlive which traps are still armed
+   * @return the new snapshot
+   */
+  public static BoardSnapshot of(BoardSnapshot prev, int x, int y, int score, int steps,
+      boolean[] prizeAlive, boolean[] trapAlive)
+  {
+    long[] p = share(prev == null ? null : prev.prizeBits, prizeAlive);
+    long[] t = share(prev == null ? null : prev.trapBits, trapAlive);
+    return new BoardSnapshot(x, y, score, steps, p, t);
+  }
+
+  public int getX() { return x; }
+  public int getY() { return y; }
+  public int getScore() { return score; }
+  public int getSteps() { return steps; }
+
+  /**
+   * @param i prize number
+   * @return true if prize i was still on the board
+   */
+  public boolean prizeAlive(int i)
+  {
+    return (prizeBits[i >> 6] & (1L << i)) != 0;
+  }
+
+  /**
+   * @param i trap number
+   * @return true if trap i was still armed
+   */
+  public boolean trapAlive(int i)
+  {
+    return (trapBits[i >> 6] & (1L << i)) != 0;
+  }
+
+  /*------------------- private methods -------------------*/
+
+  private static long[] share(long[] prev, boolean[] alive)
+  {
+    long[] bits = new long[(alive.length + 63) >> 6];
+    for (int i = 0; i < alive.length; i++)
+    {
+      if (alive[i]) bits[i >> 6] |= 1L << i;
+    }
+    if (prev != null && java.util.Arrays.equals(prev, bits))
+    {
+      return prev;
+    }
+    return bits;
+  }
+}
@@ -0,0 +1,35 @@
+/**
+ * Read access to a game in progress, in squares rather than pixels, for views that do not use
+ * Swing such as the terminal renderer.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public interface BoardView
+{
+  /**
+   * @return the layout being played
+   */
+  Board getBoard();
+
+  /**
+   * @return the player's column; equal to the number of columns once the player has escaped
+   */
+  int getCol();
+
+  /**
+   * @return the player's row
+   */
+  int getRow();
+
+  /**
+   * @param i prize number
+   * @return true if prize i has not been picked up
+   */
+  boolean prizeAlive(int i);
+
+  /**
+   * @return the current score
+   */
+  int getScore();
+}
@@ -0,0 +1,493 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Saves games as they are played so they survive the program dying halfway. Sessions report
+ * their state with update(); a checkpoint appends the sessions that changed since the last
+ * checkpoint to a journal file, each only once however many times it changed, and forces the
+ * whole batch to disk with a single fsync. Sessions are stored in the compact form written by
+ * SessionHibernator.encode, a few dozen bytes each.
+ * <P>
+ * Every record carries a checksum and every batch ends with a commit marker. When the journal
+ * is opened, the latest record of every session is read back from the committed batches; a
+ * batch cut short by a crash, or holding a damaged record, is dropped with anything after it,
+ * so all sessions come back as they were at the same checkpoint. Once the file holds mostly
+ * old records it is rewritten with only the latest one per session, and the new file replaces
+ * the old one in a single rename.
+ * <P>
+ * File format: a 4 byte magic number, then records of
+ * length (int), session id (long), state (length bytes), CRC32 of the three (int).
+ * A length of 0 means the session was removed. A length of -1 with no state is the commit
+ * marker of a batch; its id is the number of records in the batch.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class CheckpointJournal
+{
+  private static final int MAGIC = 0x45524A32; // "ERJ2"
+  // length of a commit marker
+  private static final int COMMIT = -1;
+  // length, id and checksum around every state
+  private static final int OVERHEAD = 4 + 8 + 4;
+  // states longer than this are taken for damage
+  private static final int MAX_STATE = 1 << 20;
+  // rewrite the file when it is this many times bigger than the latest records
+  private static final int COMPACT_RATIO = 4;
+  private static final long COMPACT_MIN_BYTES = 64 * 1024;
+
+  private final File file;
+  // latest state of every session that changed since the last checkpoint
+  private final ConcurrentHashMap<Long, byte[]> dirty = new ConcurrentHashMap<Long, byte[]>();
+  // latest state of every session in the file
+  private final ConcurrentHashMap<Long, byte[]> latest = new ConcurrentHashMap<Long, byte[]>();
+  private final Object fileLock = new Object();
+  private final CRC32 crc = new CRC32();
+
+  // guarded by fileLock
+  private FileChannel channel;
+  private ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+  private long liveBytes = 0;
+  private long checkpoints = 0;
+  private long recordsWritten = 0;
+  private long bytesWritten = 0;
+
+  private ScheduledExecutorService writer;
+
+  /**
+   * Open a journal, reading back the sessions saved in it. The file is created if it does not
+   * exist.
+   * <P>
+   * @param file the journal file
+   * @throws IOException if the file cannot be read or written, or is not a journal
+   */
+  public CheckpointJournal(File file) throws IOException
+  {
+    this.file = file;
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try
+    {
+      recover();
+    }
+    catch (IOException e)
+    {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Note the current state of a session. Only the state at the next checkpoint is written.
+   * <P>
+   * @param id session id
+   * @param state the session's state, not changed afterwards
+   */
+  public void update(long id, byte[] state)
+  {
+    if (state.length == 0 || state.length > MAX_STATE)
+    {
+      throw new IllegalArgumentException("state must be 1 to " + MAX_STATE + " bytes");
+    }
+    dirty.put(id, state);
+  }
+
+  /**
+   * Note the current state of a session. The session is read now, so call this from the thread
+   * using it.
+   * <P>
+   * @param id session id
+   * @param s the session
+   */
+  public void update(long id, PlayerSession s)
+  {
+    update(id, SessionHibernator.encode(s));
+  }
+
+  /**
+   * Forget a session at the next checkpoint, for example when its game is over.
+   * <P>
+   * @param id session id
+   */
+  public void remove(long id)
+  {
+    dirty.put(id, new byte[0]);
+  }
+
+  /**
+   * @param id session id
+   * @return the latest state of the session, including changes not checkpointed yet, or null
+   *         if there is none
+   */
+  public byte[] get(long id)
+  {
+    byte[] state = dirty.get(id);
+    if (state == null) return latest.get(id);
+    return state.length == 0 ? null : state;
+  }
+
+  /**
+   * @param id session id
+   * @return the session as it was last saved, on a board from the shared BoardCache, or null
+   *         if there is none
+   */
+  public PlayerSession getSession(long id)
+  {
+    byte[] state = get(id);
+    return state == null ? null : SessionHibernator.decode(ByteBuffer.wrap(state));
+  }
+
+  /**
+   * @return ids of all sessions that have a state, checkpointed or not
+   */
+  public Set<Long> ids()
+  {
+    Set<Long> ids = ConcurrentHashMap.newKeySet();
+    ids.addAll(latest.keySet());
+    for (Map.Entry<Long, byte[]> e : dirty.entrySet())
+    {
+      if (e.getValue().length == 0) ids.remove(e.getKey());
+      else ids.add(e.getKey());
+    }
+    return ids;
+  }
+
+  /**
+   * Write every session that changed since the last checkpoint and force them to disk.
+   * <P>
+   * @return number of sessions written
+   * @throws IOException if writing fails; the sessions are written again at the next checkpoint
+   */
+  public int checkpoint() throws IOException
+  {
+    synchronized (fileLock)
+    {
+      if (channel == null) throw new IOException("journal is closed");
+      if (dirty.isEmpty()) return 0;
+      batch.clear();
+      int n = dirty.size();
+      long[] ids = new long[n];
+      byte[][] states = new byte[n][];
+      n = 0;
+      for (Map.Entry<Long, byte[]> e : dirty.entrySet())
+      {
+        if (n == ids.length)
+        {
+          ids = java.util.Arrays.copyOf(ids, n * 2);
+          states = java.util.Arrays.copyOf(states, n * 2);
+        }
+        ids[n] = e.getKey();
+        states[n] = e.getValue();
+        if (batch.remaining() < OVERHEAD + states[n].length) growBatch(OVERHEAD + states[n].length);
+        putRecord(batch, ids[n], states[n]);
+        n++;
+      }
+      if (batch.remaining() < OVERHEAD) growBatch(OVERHEAD);
+      putCommit(batch, n);
+      batch.flip();
+      long start = channel.size();
+      long end = start;
+      try
+      {
+        while (batch.hasRemaining())
+        {
+          end += channel.write(batch, end);
+        }
+        channel.force(false);
+      }
+      catch (IOException e)
+      {
+        // a half written batch would hide the records appended after it
+        channel.truncate(start);
+        throw e;
+      }
+
+      // only now are the records safe; a newer update stays dirty for the next checkpoint
+      for (int i = 0; i < n; i++)
+      {
+        dirty.remove(ids[i], states[i]);
+        keep(ids[i], states[i].length == 0 ? null : states[i]);
+      }
+      checkpoints++;
+      recordsWritten += n;
+      bytesWritten += end - start;
+
+      if (end > COMPACT_MIN_BYTES && end > COMPACT_RATIO * liveBytes)
+      {
+        try
+        {
+          compact();
+        }
+        catch (IOException e)
+        {
+          // the records are safe anyway; the file just stays long
+          System.err.println("Could not compact " + file + ": " + e.getMessage());
+        }
+      }
+      return n;
+    }
+  }
+
+  /**
+   * Checkpoint in the background.
+   * <P>
+   * @param periodMs milliseconds between checkpoints
+   */
+  public synchronized void start(long periodMs)
+  {
+    if (writer != null) return;
+    writer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "checkpoint-journal");
+      t.setDaemon(true);
+      return t;
+    });
+    writer.scheduleWithFixedDelay(() -> {
+      try
+      {
+        checkpoint();
+      }
+      catch (IOException | RuntimeException e)
+      {
+        System.err.println("Could not write checkpoint: " + e.getMessage());
+      }
+    }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop checkpointing in the background, write a last checkpoint and close the file.
+   */
+  public void close() throws IOException
+  {
+    synchronized (this)
+    {
+      if (writer != null)
+      {
+        writer.shutdown();
+        writer = null;
+      }
+    }
+    synchronized (fileLock)
+    {
+      if (channel == null) return;
+      try
+      {
+        checkpoint();
+      }
+      finally
+      {
+        channel.close();
+        channel = null;
+      }
+    }
+  }
+
+  /**
+   * Rewrite the file with only the latest record of every session.
+   */
+  public void compact() throws IOException
+  {
+    synchronized (fileLock)
+    {
+      if (channel == null) throw new IOException("journal is closed");
+      File tmp = new File(file.getPath() + ".tmp");
+      try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+      {
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        buf.putInt(MAGIC);
+        int n = 0;
+        for (Map.Entry<Long, byte[]> e : latest.entrySet())
+        {
+          byte[] state = e.getValue();
+          if (buf.remaining() < OVERHEAD + state.length)
+          {
+            buf.flip();
+            writeFully(ch, buf);
+            buf = ByteBuffer.allocate(Math.max(buf.capacity(), OVERHEAD + state.length));
+          }
+          putRecord(buf, e.getKey(), state);
+          n++;
+        }
+        // the whole file is one batch
+        if (buf.remaining() < OVERHEAD)
+        {
+          buf.flip();
+          writeFully(ch, buf);
+          buf.clear();
+        }
+        putCommit(buf, n);
+        buf.flip();
+        writeFully(ch, buf);
+        ch.force(true);
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      // the rename is only safe once the directory is on disk too
+      syncDirectory();
+      channel.close();
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+  }
+
+  /** @return sessions with a state, checkpointed or not */
+  public int size() { return ids().size(); }
+
+  /** @return checkpoints that wrote anything */
+  public long getCheckpoints() { synchronized (fileLock) { return checkpoints; } }
+
+  /** @return records written, one per changed session per checkpoint */
+  public long getRecordsWritten() { synchronized (fileLock) { return recordsWritten; } }
+
+  /** @return bytes appended to the journal, not counting compactions */
+  public long getBytesWritten() { synchronized (fileLock) { return bytesWritten; } }
+
+  /*------------------- private methods -------------------*/
+
+  /*
+   * Read the latest state of every session from the file, and cut off a damaged end so that
+   * new records follow the last good one.
+   */
+  private void recover() throws IOException
+  {
+    long size = channel.size();
+    if (size == 0)
+    {
+      ByteBuffer header = ByteBuffer.allocate(4).putInt(MAGIC);
+      header.flip();
+      writeFully(channel, header);
+      channel.force(true);
+      syncDirectory();
+      return;
+    }
+    if (size > Integer.MAX_VALUE)
+    {
+      throw new IOException("journal is too big: " + file);
+    }
+    ByteBuffer buf = ByteBuffer.allocate((int)size);
+    while (buf.hasRemaining())
+    {
+      if (channel.read(buf, buf.position()) < 0) break;
+    }
+    buf.flip();
+    if (buf.remaining() < 4 || buf.getInt() != MAGIC)
+    {
+      throw new IOException("not a checkpoint journal: " + file);
+    }
+
+    long good = buf.position();
+    // records of the batch being read, kept once its commit marker is read
+    List<Long> ids = new ArrayList<Long>();
+    List<byte[]> states = new ArrayList<byte[]>();
+    while (buf.remaining() >= OVERHEAD)
+    {
+      int start = buf.position();
+      int length = buf.getInt();
+      int stateLength = Math.max(length, 0);
+      if (length < COMMIT || length > MAX_STATE || buf.remaining() < 8 + stateLength + 4) break;
+      long id = buf.getLong();
+      byte[] state = new byte[stateLength];
+      buf.get(state);
+      crc.reset();
+      crc.update(buf.array(), start, OVERHEAD - 4 + stateLength);
+      if ((int)crc.getValue() != buf.getInt()) break;
+      if (length != COMMIT)
+      {
+        ids.add(id);
+        states.add(state);
+        continue;
+      }
+      if (id != ids.size()) break;
+      for (int i = 0; i < ids.size(); i++)
+      {
+        keep(ids.get(i), states.get(i).length == 0 ? null : states.get(i));
+      }
+      ids.clear();
+      states.clear();
+      good = buf.position();
+    }
+    if (good < size)
+    {
+      System.err.println("Dropped " + (size - good) + " damaged bytes at the end of " + file);
+      channel.truncate(good);
+      channel.force(true);
+    }
+  }
+
+  /*
+   * Remember the latest state of a session in the file, null if it was removed.
+   */
+  private void keep(long id, byte[] state)
+  {
+    byte[] old = state == null ? latest.remove(id) : latest.put(id, state);
+    if (old != null) liveBytes -= OVERHEAD + old.length;
+    if (state != null) liveBytes += OVERHEAD + state.length;
+  }
+
+  private void putRecord(ByteBuffer buf, long id, byte[] state)
+  {
+    int start = buf.position();
+    buf.putInt(state.length);
+    buf.putLong(id);
+    buf.put(state);
+    crc.reset();
+    crc.update(buf.array(), buf.arrayOffset() + start, OVERHEAD - 4 + state.length);
+    buf.putInt((int)crc.getValue());
+  }
+
+  private void putCommit(ByteBuffer buf, int records)
+  {
+    int start = buf.position();
+    buf.putInt(COMMIT);
+    buf.putLong(records);
+    crc.reset();
+    crc.update(buf.array(), buf.arrayOffset() + start, OVERHEAD - 4);
+    buf.putInt((int)crc.getValue());
+  }
+
+  /*
+   * Force the directory holding the journal to disk, so a new or renamed file survives a
+   * crash. Some systems cannot open a directory; there this does nothing.
+   */
+  private void syncDirectory()
+  {
+    File dir = file.getAbsoluteFile().getParentFile();
+    if (dir == null) return;
+    try (FileChannel ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ))
+    {
+      ch.force(true);
+    }
+    catch (IOException e)
+    {
+      // nothing more can be done here
+    }
+  }
+
+  private void growBatch(int needed)
+  {
+    ByteBuffer bigger = ByteBuffer.allocate(Math.max(batch.capacity() * 2, batch.position() + needed));
+    batch.flip();
+    bigger.put(batch);
+    batch = bigger;
+  }
+
+  private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException
+  {
+    while (buf.hasRemaining())
+    {
+      ch.write(buf);
+    }
+  }
+}
@@ -0,0 +1,342 @@
+/**
+ * How many moves every square is from escaping through the right edge, counting single steps
+ * and two square jumps (the SPACE key) as one move each. Worked out once for a board by
+ * searching backwards from the exit; after that the distance of a square and the best move
+ * from it are looked up in constant time.
+ * <P>
+ * The field keeps its own copy of the walls. Adding or removing a wall updates only the
+ * squares whose distance can change: removing one spreads shorter distances out from the
+ * opened edge, adding one clears every square at least as far as the blocked move and
+ * searches again from the squares just in front of them.
+ * <P>
+ * Prizes and traps do not count; they never block the way.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class DistanceField
+{
+  /** Distance of a square the exit cannot be reached from. */
+  public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+  /** Length of a jump, as with the SPACE key. */
+  public static final int JUMP = 2;
+
+  // moves: direction + 4 for a jump
+  private static final int[] DC = { 1, -1, 0, 0 };
+  private static final int[] DR = { 0, 0, 1, -1 };
+  private static final String[] NAMES = { "right", "left", "down", "up" };
+
+  private final int cols;
+  private final int rows;
+  private final boolean[] blockEast;
+  private final boolean[] blockSouth;
+  private final int[] dist;
+  // work queue for searches, holding each square at most once
+  private final int[] queue;
+
+  /**
+   * Work out the distances for a board.
+   * <P>
+   * @param board the board
+   */
+  public DistanceField(Board board)
+  {
+    cols = board.getCols();
+    rows = board.getRows();
+    int n = cols * rows;
+    blockEast = new boolean[n];
+    blockSouth = new boolean[n];
+    for (int s = 0; s < n; s++)
+    {
+      blockEast[s] = board.blocked(s, 1, 0);
+      blockSouth[s] = s + cols < n && board.blocked(s, 0, 1);
+    }
+    dist = new int[n];
+    queue = new int[n];
+    java.util.Arrays.fill(dist, UNREACHABLE);
+    search(seedExits());
+  }
+
+  /*
+   * Copy of another field, sharing nothing with it.
+   */
+  private DistanceField(DistanceField other)
+  {
+    cols = other.cols;
+    rows = other.rows;
+    blockEast = other.blockEast.clone();
+    blockSouth = other.blockSouth.clone();
+    dist = other.dist.clone();
+    queue = new int[dist.length];
+  }
+
+  /**
+   * Copy the field, for example to change walls on a field that is shared, such as one from a
+   * BoardCache.
+   * <P>
+   * @return an independent copy
+   */
+  public DistanceField copy()
+  {
+    return new DistanceField(this);
+  }
+
+  public int getCols() { return cols; }
+  public int getRows() { return rows; }
+
+  /**
+   * @param col column
+   * @param row row
+   * @return moves needed to escape, or UNREACHABLE; 0 for a player who already escaped
+   */
+  public int distance(int col, int row)
+  {
+    if (col >= cols) return 0;
+    return dist[col + row * cols];
+  }
+
+  /**
+   * Find the move that gets closest to the exit, preferring a step to a jump.
+   * <P>
+   * @param col column of the player
+   * @param row row of the player
+   * @return the move, or -1 if the player has escaped or cannot get out; see moveDc, moveDr
+   *         and moveLength
+   */
+  public int hint(int col, int row)
+  {
+    if (col >= cols) return -1;
+    int s = col + row * cols;
+    if (dist[s] == UNREACHABLE) return -1;
+    for (int m = 0; m < 8; m++)
+    {
+      int len = moveLength(m);
+      if (!canMove(col, row, DC[m % 4], DR[m % 4], len)) continue;
+      int c = col + DC[m % 4] * len;
+      int r = row + DR[m % 4] * len;
+      // off the right edge is out
+      int d = c >= cols ? 0 : dist[c + r * cols];
+      if (d != UNREACHABLE && d + 1 == dist[s]) return m;
+    }
+    return -1;
+  }
+
+  public static int moveDc(int move) { return DC[move % 4]; }
+  public static int moveDr(int move) { return DR[move % 4]; }
+  public static int moveLength(int move) { return move < 4 ? 1 : JUMP; }
+
+  /**
+   * @param move a move returned by hint
+   * @return the move as a command, e.g. "right" or "jump up", or "none" for -1
+   */
+  public static String describe(int move)
+  {
+    if (move < 0) return "none";
+    return move < 4 ? NAMES[move] : "jump " + NAMES[move % 4];
+  }
+
+  /**
+   * Add or remove a wall, updating the distances that change.
+   * <P>
+   * @param col column of the square left of (vertical) or above (horizontal) the wall
+   * @param row row of that square
+   * @param vertical true for a wall on the east side of the square, false for the south side
+   * @param present true to add the wall, false to remove it
+   */
+  public void setWall(int col, int row, boolean vertical, boolean present)
+  {
+    int s = col + row * cols;
+    boolean[] edges = vertical ? blockEast : blockSouth;
+    if (edges[s] == present) return;
+    if (present)
+    {
+      // the first square a blocked move could start from decides what may get longer
+      int threshold = UNREACHABLE;
+      int dc = vertical ? 1 : 0;
+      int dr = vertical ? 0 : 1;
+      for (int back = -JUMP + 1; back <= 0; back++)
+      {
+        for (int len = 1; len <= JUMP; len++)
+        {
+          // moves in both directions over the edge, starting up to a jump away
+          threshold = Math.min(threshold, usedMove(col + back * dc, row + back * dr, dc, dr, len));
+          threshold = Math.min(threshold, usedMove(col + (1 - back) * dc, row + (1 - back) * dr, -dc, -dr, len));
+        }
+      }
+      edges[s] = true;
+      if (threshold != UNREACHABLE) invalidateFrom(threshold);
+    }
+    else
+    {
+      edges[s] = false;
+      // every square by the opened edge may have just got closer
+      int tail = 0;
+      for (int back = -JUMP; back <= JUMP + 1; back++)
+      {
+        int c = col + (vertical ? back : 0);
+        int r = row + (vertical ? 0 : back);
+        if (c >= 0 && c < cols && r >= 0 && r < rows) queue[tail++] = c + r * cols;
+      }
+      relax(tail);
+    }
+  }
+
+  /*------------------- private methods -------------------*/
+
+  /*
+   * Check that a move of len squares from a square is allowed: no wall, and the board edge
+   * only on the right, where it is the exit.
+   */
+  private boolean canMove(int col, int row, int dc, int dr, int len)
+  {
+    for (int i = 0; i < len; i++)
+    {
+      int nc = col + dc;
+      int nr = row + dr;
+      if (nc >= cols && dc > 0) return !blockEast[col + row * cols];
+      if (nc < 0 || nr < 0 || nr >= rows) return false;
+      int s = col + row * cols;
+      if (dc > 0 && blockEast[s]) return false;
+      if (dc < 0 && blockEast[s - 1]) return false;
+      if (dr > 0 && blockSouth[s]) return false;
+      if (dr < 0 && blockSouth[s - cols]) return false;
+      col = nc;
+      row = nr;
+    }
+    return true;
+  }
+
+  /*
+   * If a move from a square is possible and on a shortest way out, return the distance of the
+   * square it starts from; otherwise UNREACHABLE.
+   */
+  private int usedMove(int col, int row, int dc, int dr, int len)
+  {
+    if (col < 0 || col >= cols || row < 0 || row >= rows) return UNREACHABLE;
+    int from = dist[col + row * cols];
+    if (from == UNREACHABLE || !canMove(col, row, dc, dr, len)) return UNREACHABLE;
+    int c = col + dc * len;
+    int to = c >= cols ? 0 : dist[c + (row + dr * len) * cols];
+    return to != UNREACHABLE && to + 1 == from ? from : UNREACHABLE;
+  }
+
+  /*
+   * Put the squares that can escape in one move in the queue with distance 1.
+   */
+  private int seedExits()
+  {
+    int tail = 0;
+    for (int r = 0; r < rows; r++)
+    {
+      for (int c = Math.max(0, cols - JUMP); c < cols; c++)
+      {
+        int s = c + r * cols;
+        if (dist[s] == UNREACHABLE && canMove(c, r, 1, 0, cols - c))
+        {
+          dist[s] = 1;
+          queue[tail++] = s;
+        }
+      }
+    }
+    return tail;
+  }
+
+  /*
+   * Breadth first search backwards from the squares in the queue, only into squares that have
+   * no distance yet. Moves can be reversed, so the squares a move could come from are the ones
+   * a move could go to.
+   */
+  private void search(int tail)
+  {
+    for (int head = 0; head < tail; head++)
+    {
+      int s = queue[head];
+      int col = s % cols;
+      int row = s / cols;
+      for (int m = 0; m < 8; m++)
+      {
+        int len = moveLength(m);
+        if (!canMove(col, row, DC[m % 4], DR[m % 4], len)) continue;
+        int c = col + DC[m % 4] * len;
+        if (c >= cols) continue;
+        int p = c + (row + DR[m % 4] * len) * cols;
+        if (dist[p] == UNREACHABLE)
+        {
+          dist[p] = dist[s] + 1;
+          queue[tail++] = p;
+        }
+      }
+    }
+  }
+
+  /*
+   * A wall was added: squares closer than the threshold keep their way out. Clear the rest and
+   * search again from the squares one closer than the threshold.
+   */
+  private void invalidateFrom(int threshold)
+  {
+    for (int s = 0; s < dist.length; s++)
+    {
+      if (dist[s] != UNREACHABLE && dist[s] >= threshold) dist[s] = UNREACHABLE;
+    }
+    if (threshold <= 1)
+    {
+      search(seedExits());
+      return;
+    }
+    int tail = 0;
+    for (int s = 0; s < dist.length; s++)
+    {
+      if (dist[s] == threshold - 1) queue[tail++] = s;
+    }
+    search(tail);
+  }
+
+  /*
+   * A wall was removed: pass shorter distances on from the squares in the queue, for as long
+   * as they get shorter. Distances only go down, so this stops. The queue is used as a ring
+   * holding each square at most once.
+   */
+  private void relax(int tail)
+  {
+    boolean[] queued = new boolean[dist.length];
+    for (int i = 0; i < tail; i++)
+    {
+      int s = queue[i];
+      queued[s] = true;
+      int c = s % cols;
+      if (c >= cols - JUMP && dist[s] > 1 && canMove(c, s / cols, 1, 0, cols - c)) dist[s] = 1;
+    }
+    int head = 0;
+    int size = tail;
+    while (size > 0)
+    {
+      int s = queue[head];
+      head = (head + 1) % queue.length;
+      size--;
+      queued[s] = false;
+      if (dist[s] == UNREACHABLE) continue;
+      int col = s % cols;
+      int row = s / cols;
+      for (int m = 0; m < 8; m++)
+      {
+        int len = moveLength(m);
+        if (!canMove(col, row, DC[m % 4], DR[m % 4], len)) continue;
+        int c = col + DC[m % 4] * len;
+        if (c >= cols) continue;
+        int p = c + (row + DR[m % 4] * len) * cols;
+        if (dist[s] + 1 < dist[p])
+        {
+          dist[p] = dist[s] + 1;
+          if (!queued[p])
+          {
+            queued[p] = true;
+            queue[(head + size) % queue.length] = p;
+            size++;
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,359 @@
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A room that never ends: it keeps going to the right, one chunk of columns at a time. Every
+ * chunk is an ordinary Board generated from the room's seed and the chunk number, so the same
+ * seed always gives the same room.
+ * <P>
+ * Only a few chunks around the player are kept, in a ring: the one the player is in, the one
+ * behind and the ones ahead. The chunks ahead are generated on a background thread before the
+ * player gets there, and chunks left behind are dropped and generated again if the player
+ * walks back. Moving never waits for a chunk: one that is not ready yet is played as an empty
+ * chunk with no walls, prizes or traps until the real one is done. Memory stays the same
+ * however far the player goes. A chunk generated again after being dropped comes back without
+ * prizes or traps: the player has already been through it.
+ * <P>
+ * Moving into a wall or off the top, bottom or start of the room costs a penalty; prizes are
+ * picked up by walking onto them. Traps work like in a PlayerSession: the command after
+ * landing on one must spring it, or it goes off. Scores come from ScoreRules.
+ * <P>
+ * Usage: java EndlessRoom [seed]
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class EndlessRoom implements BoardView
+{
+  /** Columns in one chunk, the width of the GameGUI board. */
+  public static final int CHUNK_COLS = 8;
+  // chunks kept: one behind, the current one and two ahead
+  private static final int RING = 4;
+  private static final int AHEAD = 2;
+
+  /*
+   * One chunk in the ring: its layout and what is left of its prizes and traps.
+   */
+  private static class Chunk
+  {
+    final long index;
+    final Board board;
+    // true for an empty chunk standing in for one still being generated
+    final boolean placeholder;
+    final boolean[] prizeAlive;
+    final boolean[] trapAlive;
+
+    Chunk(long index, Board board, boolean fresh, boolean placeholder)
+    {
+      this.index = index;
+      this.board = board;
+      this.placeholder = placeholder;
+      prizeAlive = new boolean[board.getTotalPrizes()];
+      trapAlive = new boolean[board.getTotalTraps()];
+      java.util.Arrays.fill(prizeAlive, fresh);
+      java.util.Arrays.fill(trapAlive, fresh);
+    }
+  }
+
+  private final long seed;
+  private final int rows;
+  private final int walls;
+  private final int traps;
+  private final int prizes;
+  private final ScoreRules rules;
+  // played while a chunk is not ready yet
+  private final Board empty;
+
+  // only touched by the thread playing
+  private final Chunk[] ring = new Chunk[RING];
+  private long furthestChunk = -1;
+  private long col = 0;
+  private int row = 0;
+  private int score = 0;
+  private int steps = 0;
+  private int pendingTrap = -1;
+  private Chunk pendingChunk;
+
+  // counted on both threads
+  private final AtomicLong chunksGenerated = new AtomicLong();
+
+  // chunks being generated ahead of the player
+  private final ConcurrentHashMap<Long, CompletableFuture<Board>> coming = new ConcurrentHashMap<Long, CompletableFuture<Board>>();
+  private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "endless-room-chunks");
+    t.setDaemon(true);
+    return t;
+  });
+
+  /**
+   * Start at the top-left square of the room, scored with the game's usual rules.
+   * <P>
+   * @param seed seed the room is generated from
+   * @param rows number of rows
+   * @param walls walls per chunk
+   * @param traps traps per chunk
+   * @param prizes prizes per chunk
+   */
+  public EndlessRoom(long seed, int rows, int walls, int traps, int prizes)
+  {
+    this.seed = seed;
+    this.rows = rows;
+    this.walls = walls;
+    this.traps = traps;
+    this.prizes = prizes;
+    this.rules = ScoreRules.get();
+    empty = Board.generate(seed, CHUNK_COLS, rows, 0, 0, 0);
+    ring[0] = new Chunk(0, generate(0), true, false);
+    furthestChunk = 0;
+    prefetch(0);
+  }
+
+  /**
+   * Move the player one square, into the next chunk if need be.
+   * <P>
+   * @param dc column change, -1, 0 or 1
+   * @param dr row change, -1, 0 or 1
+   * @return the change in score
+   */
+  public int move(int dc, int dr)
+  {
+    return travel(dc, dr, 1, ScoreRules.STEP);
+  }
+
+  /**
+   * Jump n squares in a straight line, all or nothing. Only the landing square counts.
+   * <P>
+   * @param dc column change per square, -1, 0 or 1
+   * @param dr row change per square, -1, 0 or 1
+   * @param n squares to jump, at most CHUNK_COLS
+   * @return the change in score
+   */
+  public int jump(int dc, int dr, int n)
+  {
+    // longer jumps could reach past the chunks kept in the ring
+    return travel(dc, dr, Math.min(n, CHUNK_COLS), ScoreRules.JUMP);
+  }
+
+  /**
+   * Spring the trap the player is standing on.
+   * <P>
+   * @return a positive score if a trap was sprung, otherwise a penalty
+   */
+  public int springTrap()
+  {
+    if (pendingTrap < 0) return award(ScoreEvent.TRAP_MISSING, ScoreRules.STEP);
+    pendingChunk.trapAlive[pendingTrap] = false;
+    pendingTrap = -1;
+    pendingChunk = null;
+    return award(ScoreEvent.TRAP_SPRUNG, ScoreRules.STEP);
+  }
+
+  /**
+   * Stop the background generation. The room cannot be played any more.
+   */
+  public void close()
+  {
+    prefetcher.shutdownNow();
+    coming.clear();
+  }
+
+  /**
+   * @return the chunk the player is in, 0 for the first
+   */
+  public long getChunk() { return Math.floorDiv(col, CHUNK_COLS); }
+
+  /**
+   * @return how far right the player is, counted from the first column of the room
+   */
+  public long getDistance() { return col; }
+
+  /**
+   * @return the chunks generated so far, including ones generated again
+   */
+  public long getChunksGenerated() { return chunksGenerated.get(); }
+
+  public int getSteps() { return steps; }
+  public int getPendingTrap() { return pendingTrap; }
+
+  /*------------------- BoardView: the chunk the player is in -------------------*/
+
+  public Board getBoard() { return chunk(getChunk()).board; }
+  public int getCol() { return Math.floorMod(col, CHUNK_COLS); }
+  public int getRow() { return row; }
+  public boolean prizeAlive(int i) { return chunk(getChunk()).prizeAlive[i]; }
+  public int getScore() { return score; }
+
+  /*------------------- private methods -------------------*/
+
+  private int travel(int dc, int dr, int n, int context)
+  {
+    int delta = 0;
+    if (pendingTrap >= 0)
+    {
+      pendingChunk.trapAlive[pendingTrap] = false;
+      pendingTrap = -1;
+      pendingChunk = null;
+      delta += award(ScoreEvent.TRAP_EXPIRED, ScoreRules.STEP);
+    }
+    steps++;
+    long c = col;
+    int r = row;
+    for (int i = 0; i < n; i++)
+    {
+      if (c + dc < 0 || r + dr < 0 || r + dr >= rows) return delta + award(ScoreEvent.OFF_GRID, context);
+      if (blocked(c, r, dc, dr)) return delta + award(ScoreEvent.HIT_WALL, context);
+      c += dc;
+      r += dr;
+    }
+    long before = getChunk();
+    col = c;
+    row = r;
+    if (getChunk() != before) prefetch(getChunk());
+    return delta + landOn(context);
+  }
+
+  /*
+   * Check for a wall on the way out of a square. Going east out of the last column of a chunk
+   * uses that chunk's exit walls; going west out of the first column uses the exit walls of
+   * the chunk before.
+   */
+  private boolean blocked(long c, int r, int dc, int dr)
+  {
+    int local = Math.floorMod(c, CHUNK_COLS);
+    long k = Math.floorDiv(c, CHUNK_COLS);
+    if (dc < 0 && local == 0)
+    {
+      return chunk(k - 1).board.exitBlocked(r);
+    }
+    return chunk(k).board.blocked(local + r * CHUNK_COLS, dc, dr);
+  }
+
+  private int landOn(int context)
+  {
+    Chunk chunk = chunk(getChunk());
+    int square = getCol() + row * CHUNK_COLS;
+    for (int i = 0; i < chunk.trapAlive.length; i++)
+    {
+      if (chunk.trapAlive[i] && chunk.board.trapSquare(i) == square)
+      {
+        pendingTrap = i;
+        pendingChunk = chunk;
+        break;
+      }
+    }
+    for (int i = 0; i < chunk.prizeAlive.length; i++)
+    {
+      if (chunk.prizeAlive[i] && chunk.board.prizeSquare(i) == square)
+      {
+        chunk.prizeAlive[i] = false;
+        return award(ScoreEvent.PRIZE_STEP, context);
+      }
+    }
+    return 0;
+  }
+
+  /*
+   * Return a chunk from the ring, putting it there first if needed. That takes the board the
+   * prefetcher made; if it is not done yet, an empty chunk is used until it is. Never waits.
+   */
+  private Chunk chunk(long k)
+  {
+    int slot = Math.floorMod(k, RING);
+    Chunk c = ring[slot];
+    if (c != null && c.index == k && !c.placeholder) return c;
+
+    CompletableFuture<Board> future = coming.get(k);
+    if (future == null)
+    {
+      // dropped earlier, or asked for before prefetch() got to it
+      final long index = k;
+      future = coming.computeIfAbsent(k, key -> CompletableFuture.supplyAsync(() -> generate(index), prefetcher));
+    }
+    if (!future.isDone() || future.isCompletedExceptionally())
+    {
+      if (c == null || c.index != k)
+      {
+        c = new Chunk(k, empty, false, true);
+        ring[slot] = c;
+      }
+      return c;
+    }
+    coming.remove(k, future);
+    c = new Chunk(k, future.getNow(empty), k > furthestChunk, false);
+    furthestChunk = Math.max(furthestChunk, k);
+    ring[slot] = c;
+    return c;
+  }
+
+  /*
+   * Start generating the chunks around the player that are not in the ring yet, and forget
+   * any that are no longer needed.
+   */
+  private void prefetch(long current)
+  {
+    coming.keySet().removeIf(k -> k < current - 1 || k > current + AHEAD);
+    for (long k = Math.max(0, current - 1); k <= current + AHEAD; k++)
+    {
+      Chunk c = ring[Math.floorMod(k, RING)];
+      if (c != null && c.index == k && !c.placeholder) continue;
+      final long index = k;
+      coming.computeIfAbsent(k, key -> CompletableFuture.supplyAsync(() -> generate(index), prefetcher));
+    }
+  }
+
+  private Board generate(long k)
+  {
+    chunksGenerated.incrementAndGet();
+    // spread the chunk numbers out so neighbouring chunks do not look alike
+    long chunkSeed = seed ^ (k * 0x9E3779B97F4A7C15L);
+    return Board.generate(chunkSeed, CHUNK_COLS, rows, walls, traps, prizes);
+  }
+
+  private int award(ScoreEvent event, int context)
+  {
+    int delta = rules.delta(event, context);
+    score += delta;
+    return delta;
+  }
+
+  /**
+   * Play an endless room in the console.
+   */
+  public static void main(String[] args) throws IOException
+  {
+    long seed = args.length > 0 ? Long.parseLong(args[0]) : new java.util.Random().nextLong();
+    EndlessRoom room = new EndlessRoom(seed, 5, 20, 5, 3);
+    AsciiRenderer terminal = new AsciiRenderer(System.out, true);
+    String[] validCommands = { "right", "left", "up", "down", "r", "l", "u", "d",
+        "jr", "jl", "ju", "jd", "spring", "s", "quit", "q" };
+
+    System.out.println("Endless room " + seed + ": see how far right you get.");
+    while (true)
+    {
+      terminal.render(room);
+      System.out.print("Distance " + room.getDistance() + ", steps " + room.getSteps() + "\n> ");
+      String[] parts = UserInput.getValidCommand(validCommands).split(" ");
+      String cmd = parts[0];
+      int n = parts.length > 1 ? Integer.parseInt(parts[1]) : 2;
+      if (cmd.equals("quit") || cmd.equals("q")) break;
+      if (cmd.equals("spring") || cmd.equals("s"))
+      {
+        room.springTrap();
+        continue;
+      }
+      boolean jump = cmd.startsWith("j");
+      char d = cmd.charAt(jump ? 1 : 0);
+      int dc = d == 'r' ? 1 : d == 'l' ? -1 : 0;
+      int dr = d == 'd' ? 1 : d == 'u' ? -1 : 0;
+      if (jump) room.jump(dc, dr, n);
+      else room.move(dc, dr);
+      if (room.getPendingTrap() >= 0) System.out.println("You stepped on a trap! Spring it now or it goes off.");
+    }
+    System.out.println("You got " + room.getDistance() + " squares in with a score of " + room.getScore());
+    room.close();
+  }
+}
@@ -16,6 +16,23 @@ public class EscapeRoom
 {
   // global score so GUI can update it when actions happen in the GUI thread
   public static int score = 0;
+  // size of move
+  private static final int SPACE = 60;
+  // commands that act on the board and can be chained, e.g. "r,r,d,jr"
+  private static final java.util.Set<String> ACTIONS = new java.util.HashSet<String>(java.util.Arrays.asList(
+      "right", "left", "up", "down", "r", "l", "u", "d",
+      "jump", "jumpright", "jr", "jumpleft", "jl", "jumpup", "ju", "jumpdown", "jd",
+      "dashright", "dr", "dashleft", "dl", "dashup", "du", "dashdown", "dd", "pickup", "p"));
+  // moves of one square, repeated by a number, e.g. "right 3"
+  private static final java.util.Set<String> STEPS = new java.util.HashSet<String>(java.util.Arrays.asList(
+      "right", "left", "up", "down", "r", "l", "u", "d"));
+  // direction of the last move, used by "jump"
+  private static int lastDc = 1;
+  private static int lastDr = 0;
+
+  // id of the game in the journal, and milliseconds between checkpoints
+  private static final long GAME_ID = 1;
+  private static final long CHECKPOINT_MS = 1000;
   /* TO-DO: Process game commands from user input:
       right, left, up, down: move player size of move, m, if player try to go off grid or bump into wall, score decreases
       jump over 1 space: player cannot jump over walls
@@ -38,31 +55,68 @@ public class EscapeRoom
     
     GameGUI game = new GameGUI();
   game.createBoard();
+  // finished games are saved here so scores survive between runs
+  Leaderboard leaderboard = new Leaderboard(new java.io.File("leaderboard.txt"));
+  long startTime = System.currentTimeMillis();
+  // the game is saved as it is played, so a crash does not lose it
+  CheckpointJournal journal = null;
+  try {
+    journal = new CheckpointJournal(new java.io.File("escaperoom.journal"));
+    PlayerSession saved = journal.getSession(GAME_ID);
+    if (saved != null) {
+      game.resume(saved);
+      score = saved.getScore();
+      System.out.println("Continuing your last game: score " + score + ", " + saved.getSteps() + " steps.");
+    }
+    game.setJournal(journal, GAME_ID);
+    journal.start(CHECKPOINT_MS);
+  } catch (java.io.IOException | RuntimeException e) {
+    System.err.println("Could not open the saved game: " + e.getMessage());
+  }
   // show Info after the board is created so walls/prizes/traps are preserved
   game.openInfo();
 
-    // size of move
-    int m = 60; 
-    // individual player moves
-    int px = 0;
-    int py = 0; 
-    
+    // optional text view of the board for terminals, e.g. "java EscapeRoom ascii"
+    AsciiRenderer terminal = null;
+    if (args.length > 0 && args[0].equals("ascii")) {
+      terminal = new AsciiRenderer(System.out, true);
+    }
+
   // use the static score field
 
     Scanner in = new Scanner(System.in);
     String[] validCommands = { "right", "left", "up", "down", "r", "l", "u", "d",
-    "jump", "jr", "jumpleft", "jl", "jumpup", "ju", "jumpdown", "jd",
-    "pickup", "p", "quit", "q", "replay", "help", "?"};
+    "jump", "jumpright", "jr", "jumpleft", "jl", "jumpup", "ju", "jumpdown", "jd",
+    "dashright", "dr", "dashleft", "dl", "dashup", "du", "dashdown", "dd",
+    "pickup", "p", "quit", "q", "replay", "start", "help", "?", "undo", "redo", "ascii", "players", "next", "hint"};
   
     // set up game
     boolean play = true;
     while (play)
     {
+      game.checkpoint();
+      if (terminal != null) {
+        try {
+          terminal.render(game);
+        } catch (java.io.IOException e) {
+          System.err.println("Could not draw the board: " + e.getMessage());
+          terminal = null;
+        }
+      }
 
-      // get user command and validate
+      // get user command and validate; several may be given at once, e.g. "r,r,d,jr" or "right 3"
       System.out.print("Enter command:");
-      String input = UserInput.getValidInput(validCommands);
-      int moveResult = 0;
+      String[] commands = UserInput.getValidCommands(validCommands);
+      String input = commands[0];
+      if (commands.length > 1 || isRepeat(input)) {
+        runMacro(game, commands, in);
+        continue;
+      }
+      // jumps and dashes may be followed by a number of squares
+      String[] parts = input.split(" ");
+      String cmd = parts[0];
+      int count = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+      input = cmd;
 
       // full restart/replay command: reset the board and score
       if (input.equals("replay") || input.equals("restart")) {
@@ -71,77 +125,63 @@ public class EscapeRoom
         // reset global score and GUI
         EscapeRoom.score = 0;
         game.setScore(0);
+        startTime = System.currentTimeMillis();
         System.out.println("Game restarted. Score reset to 0.");
         continue;
       }
 
-      // single-letter 'r' teleports the player to top-left
-      if (input.equals("r")) {
-        game.teleportToStart();
+      if (input.equals("quit") || input.equals("q")) {
+        play = false;
         continue;
       }
-      if (input.equals("right") || input.equals("r")) {
-        moveResult = game.movePlayer(m, 0);
-        score += moveResult;
-        game.setScore(score);
-        if (game.isTrap(0, 0)) {
-          System.out.println("You stepped on a trap! Do you want to spring it? (yes/no)");
-          String trapInput = in.nextLine().trim().toLowerCase();
-          if (trapInput.equals("yes") || trapInput.equals("y")) {
-            score += game.springTrap(0, 0);
-            game.setScore(score);
-          } else {
-            System.out.println("You chose not to spring the trap.");
-          }
-        }
-      } else if (input.equals("left") || input.equals("l")) {
-        moveResult = game.movePlayer(-m, 0);
-        score += moveResult;
-        game.setScore(score);
-        if (game.isTrap(0, 0)) {
-          System.out.println("You stepped on a trap! Do you want to spring it? (yes/no)");
-          String trapInput = in.nextLine().trim().toLowerCase();
-          if (trapInput.equals("yes") || trapInput.equals("y")) {
-            score += game.springTrap(0, 0);
-            game.setScore(score);
-          } else {
-            System.out.println("You chose not to spring the trap.");
-          }
-        }
-      } else if (input.equals("up") || input.equals("u")) {
-        moveResult = game.movePlayer(0, -m);
-        score += moveResult;
-        game.setScore(score);
-        if (game.isTrap(0, 0)) {
-          System.out.println("You stepped on a trap! Do you want to spring it? (yes/no)");
-          String trapInput = in.nextLine().trim().toLowerCase();
-          if (trapInput.equals("yes") || trapInput.equals("y")) {
-            score += game.springTrap(0, 0);
-            game.setScore(score);
-          } else {
-            System.out.println("You chose not to spring the trap.");
-          }
+
+      // toggle the text view of the board
+      if (input.equals("ascii")) {
+        terminal = terminal == null ? new AsciiRenderer(System.out, true) : null;
+        continue;
+      }
+
+      // several players on one board, e.g. "players 3"; "next" passes the turn
+      if (input.equals("players")) {
+        if (count < PlayerTable.MIN_PLAYERS || count > PlayerTable.MAX_PLAYERS) {
+          System.out.println("Give a number of players from " + PlayerTable.MIN_PLAYERS + " to " + PlayerTable.MAX_PLAYERS + ", e.g. players 2");
+        } else {
+          game.setPlayers(count);
+          System.out.println(count + " players. Player 1 goes first.");
         }
-      } else if (input.equals("down") || input.equals("d")) {
-        moveResult = game.movePlayer(0, m);
-        score += moveResult;
+        continue;
+      }
+      if (input.equals("next")) {
+        game.nextPlayer();
+        System.out.println("Player " + (game.getActivePlayer() + 1) + "'s turn.");
+        continue;
+      }
+
+      if (input.equals("hint")) {
+        System.out.println("Hint: " + game.hint());
+        continue;
+      }
+
+      if (input.equals("undo") || input.equals("redo")) {
+        boolean done = input.equals("undo") ? game.undo() : game.redo();
+        if (!done) System.out.println("Nothing to " + input + ".");
+        continue;
+      }
+
+      // 'start' teleports the player to top-left; 'r' is always right, alone or in a chain
+      if (input.equals("start")) {
+        game.teleportToStart();
+        continue;
+      }
+
+      if (ACTIONS.contains(cmd)) {
+        score += act(game, cmd, count);
         game.setScore(score);
-        if (game.isTrap(0, 0)) {
-          System.out.println("You stepped on a trap! Do you want to spring it? (yes/no)");
-          String trapInput = in.nextLine().trim().toLowerCase();
-          if (trapInput.equals("yes") || trapInput.equals("y")) {
-            score += game.springTrap(0, 0);
-            game.setScore(score);
-          } else {
-            System.out.println("You chose not to spring the trap.");
-          }
-        }
+        if (!cmd.equals("pickup") && !cmd.equals("p")) offerTrap(game, in);
       }
 
       /* process other user commands*/
 
-      /* uncomment when user quits */
-      // play = false;
     }
 
     score += game.endGame();
@@ -149,6 +189,145 @@ public class EscapeRoom
 
     System.out.println("score=" + score);
     System.out.println("steps=" + game.getSteps());
+
+    // the game is over, so there is nothing to continue next time
+    if (journal != null) {
+      game.setJournal(null, GAME_ID);
+      journal.remove(GAME_ID);
+      try {
+        journal.close();
+      } catch (java.io.IOException e) {
+        System.err.println("Could not save the game: " + e.getMessage());
+      }
+    }
+
+    leaderboard.record(game.getSeed(), score, game.getSteps(), System.currentTimeMillis() - startTime);
+    System.out.println("Top scores on this board:");
+    for (Leaderboard.Entry e : leaderboard.top(game.getSeed(), 5)) {
+      System.out.println("  " + e);
+    }
   }
-}
 
+  /*
+   * Run a chain of commands in one go, e.g. "r,r,d,jr" or "right 3": nothing is printed or
+   * painted until the chain is done, then the board is painted once and one line sums up what
+   * happened. The chain stops early when the player steps on a trap, which needs an answer, or
+   * escapes.
+   */
+  private static void runMacro(GameGUI game, String[] commands, Scanner in)
+  {
+    int total = 0;
+    for (String c : commands) {
+      String[] parts = c.split(" ");
+      total += STEPS.contains(parts[0]) && parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+    }
+    for (String c : commands) {
+      String first = c.split(" ")[0];
+      if (!ACTIONS.contains(first)) {
+        System.out.println("Only moves, jumps, dashes and pickups can be chained: " + c);
+        return;
+      }
+    }
+
+    int before = score;
+    int done = 0;
+    String stop = "";
+    game.setQuiet(true);
+    try {
+      chain:
+      for (String c : commands) {
+        String[] parts = c.split(" ");
+        String cmd = parts[0];
+        int count = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+        // a number repeats a one square move, but is the distance of a jump or dash
+        int times = STEPS.contains(cmd) && count > 0 ? count : 1;
+        for (int i = 0; i < times; i++) {
+          score += act(game, cmd, count);
+          done++;
+          if (game.hasWon()) {
+            stop = " You made it out!";
+            break chain;
+          }
+          if (game.isTrap(0, 0) && !cmd.equals("pickup") && !cmd.equals("p")) {
+            stop = done < total ? " Stopped on a trap." : "";
+            break chain;
+          }
+        }
+      }
+    } finally {
+      game.setQuiet(false);
+    }
+    game.setScore(score);
+    System.out.println("Ran " + done + " of " + total + " commands: " + String.format("%+d", score - before)
+        + " points, score " + score + ", " + game.getSteps() + " steps." + stop);
+    offerTrap(game, in);
+  }
+
+  /*
+   * Carry out a move, jump, dash or pickup and return the change in score. For jumps and
+   * dashes count is the number of squares, 0 for the default of 2.
+   */
+  private static int act(GameGUI game, String cmd, int count)
+  {
+    if (cmd.equals("pickup") || cmd.equals("p")) {
+      return game.pickupPrize();
+    }
+    // direction of a move, jump or dash command
+    int dc = 0;
+    int dr = 0;
+    if (cmd.equals("right") || cmd.equals("r") || cmd.equals("jumpright") || cmd.equals("jr") || cmd.equals("dashright") || cmd.equals("dr")) {
+      dc = 1;
+    } else if (cmd.equals("left") || cmd.equals("l") || cmd.equals("jumpleft") || cmd.equals("jl") || cmd.equals("dashleft") || cmd.equals("dl")) {
+      dc = -1;
+    } else if (cmd.equals("up") || cmd.equals("u") || cmd.equals("jumpup") || cmd.equals("ju") || cmd.equals("dashup") || cmd.equals("du")) {
+      dr = -1;
+    } else if (cmd.equals("down") || cmd.equals("d") || cmd.equals("jumpdown") || cmd.equals("jd") || cmd.equals("dashdown") || cmd.equals("dd")) {
+      dr = 1;
+    } else if (cmd.equals("jump")) {
+      // jump keeps going the way the player last moved
+      dc = lastDc;
+      dr = lastDr;
+    }
+    if (dc == 0 && dr == 0) return 0;
+
+    int moveResult;
+    if (cmd.startsWith("j")) {
+      // jumps default to 2 squares, e.g. "jr" or "jr 3"
+      moveResult = game.jumpPlayer(dc, dr, count > 0 ? count : 2);
+    } else if (cmd.startsWith("dash") || cmd.equals("dr") || cmd.equals("dl") || cmd.equals("du") || cmd.equals("dd")) {
+      // dashes also default to 2 squares, e.g. "dr" or "dr 4"
+      moveResult = game.dashPlayer(dc, dr, count > 0 ? count : 2);
+    } else {
+      moveResult = game.movePlayer(SPACE * dc, SPACE * dr);
+    }
+    lastDc = dc;
+    lastDr = dr;
+    return moveResult;
+  }
+
+  /*
+   * True for a one square move with a number, such as "right 3", which repeats the move.
+   */
+  private static boolean isRepeat(String command)
+  {
+    String[] parts = command.split(" ");
+    return parts.length > 1 && STEPS.contains(parts[0]);
+  }
+
+  /*
+   * If the player is standing on a trap, ask whether to spring it.
+   */
+  private static void offerTrap(GameGUI game, Scanner in)
+  {
+    if (game.isTrap(0, 0)) {
+      System.out.println("You stepped on a trap! Do you want to spring it? (yes/no)");
+      String trapInput = in.nextLine().trim().toLowerCase();
+      if (trapInput.equals("yes") || trapInput.equals("y")) {
+        score += game.springTrap(0, 0);
+        game.setScore(score);
+      } else {
+        System.out.println("You chose not to spring the trap.");
+      }
+    }
+  }
+}
@@ -0,0 +1,427 @@
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Plays huge numbers of random command sequences against PlayerSession on seeded boards,
+ * without Swing, and checks after every command that the game still makes sense:
+ * <P>
+ * - the session agrees with a simple model of the rules, worked out here from the board's
+ *   walls, prizes and traps: same score events reported to the listener, same score (from
+ *   ScoreRules), position, waiting trap and prizes and traps left<BR>
+ * - the score equals the sum of the values the commands returned<BR>
+ * - steps equal the number of move, dash and jump commands given before the player escaped<BR>
+ * - prizes picked up and traps sprung stay that way until the game is reset<BR>
+ * - the player is on the board, or just off the right edge after escaping
+ * <P>
+ * Sequences run in parallel on all cores. The first failure is shrunk to the shortest sequence
+ * that still fails and printed so it can be replayed.
+ * <P>
+ * Usage: java FuzzHarness [seconds] [seed]
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class FuzzHarness
+{
+  // commands, stored as op + 16 * (direction + 4 * count)
+  private static final int MOVE = 0;
+  private static final int DASH = 1;
+  private static final int JUMP = 2;
+  private static final int SPRING = 3;
+  private static final int PICKUP = 4;
+  private static final int END = 5;
+  private static final int RESET = 6;
+  private static final int OPS = 7;
+  private static final String[] OP_NAMES = { "move", "dash", "jump", "spring", "pickup", "end", "reset" };
+  private static final String[] DIR_NAMES = { "right", "left", "down", "up" };
+  private static final int[] DC = { 1, -1, 0, 0 };
+  private static final int[] DR = { 0, 0, 1, -1 };
+
+  private static final int MAX_LENGTH = 200;
+
+  /*
+   * The rules of PlayerSession written out again, square by square, to check it against.
+   */
+  private static class Model
+  {
+    final Board board;
+    final ScoreRules rules = ScoreRules.get();
+    final boolean[] prizeAlive;
+    final boolean[] trapAlive;
+    int col;
+    int row;
+    int score;
+    boolean won;
+    int pendingTrap;
+    // events of the last command, e.g. "PRIZE_STEP HIT_WALL "
+    final StringBuilder events = new StringBuilder();
+
+    Model(Board board)
+    {
+      this.board = board;
+      prizeAlive = new boolean[board.getTotalPrizes()];
+      trapAlive = new boolean[board.getTotalTraps()];
+      reset();
+    }
+
+    void reset()
+    {
+      col = 0;
+      row = 0;
+      score = 0;
+      won = false;
+      pendingTrap = -1;
+      java.util.Arrays.fill(prizeAlive, true);
+      java.util.Arrays.fill(trapAlive, true);
+    }
+
+    void travel(int dc, int dr, int n, boolean land, int context)
+    {
+      if (won) return;
+      expire();
+      int c = col;
+      int r = row;
+      for (int i = 0; i < n; i++)
+      {
+        int nc = c + dc;
+        int nr = r + dr;
+        if (nc >= board.getCols())
+        {
+          if (board.exitBlocked(r))
+          {
+            award(ScoreEvent.HIT_WALL, context);
+          }
+          else
+          {
+            col = nc;
+            row = r;
+            won = true;
+          }
+          return;
+        }
+        if (nc < 0 || nr < 0 || nr >= board.getRows())
+        {
+          award(ScoreEvent.OFF_GRID, context);
+          return;
+        }
+        if (board.blocked(c + r * board.getCols(), dc, dr))
+        {
+          award(ScoreEvent.HIT_WALL, context);
+          return;
+        }
+        c = nc;
+        r = nr;
+        if (land)
+        {
+          col = c;
+          row = r;
+          landOn(context);
+          if (pendingTrap >= 0) return;
+        }
+      }
+      col = c;
+      row = r;
+      if (!land) landOn(context);
+    }
+
+    void spring()
+    {
+      pendingTrap = -1;
+      int t = find(trapAlive, true);
+      if (t >= 0)
+      {
+        trapAlive[t] = false;
+        award(ScoreEvent.TRAP_SPRUNG, ScoreRules.STEP);
+      }
+      else
+      {
+        award(ScoreEvent.TRAP_MISSING, ScoreRules.STEP);
+      }
+    }
+
+    void pickup()
+    {
+      expire();
+      int p = find(prizeAlive, false);
+      if (p >= 0) prizeAlive[p] = false;
+      award(p >= 0 ? ScoreEvent.PRIZE_PICKUP : ScoreEvent.PRIZE_MISSING, ScoreRules.STEP);
+    }
+
+    void end()
+    {
+      expire();
+      award(col >= board.getCols() - 1 ? ScoreEvent.END_REACHED : ScoreEvent.END_EARLY, ScoreRules.STEP);
+    }
+
+    private void landOn(int context)
+    {
+      pendingTrap = Math.max(pendingTrap, find(trapAlive, true));
+      int p = find(prizeAlive, false);
+      if (p >= 0)
+      {
+        prizeAlive[p] = false;
+        award(ScoreEvent.PRIZE_STEP, context);
+      }
+    }
+
+    private void expire()
+    {
+      if (pendingTrap < 0) return;
+      trapAlive[pendingTrap] = false;
+      pendingTrap = -1;
+      award(ScoreEvent.TRAP_EXPIRED, ScoreRules.STEP);
+    }
+
+    /*
+     * First trap or prize still there on the player's square, or -1.
+     */
+    private int find(boolean[] alive, boolean traps)
+    {
+      int square = col + row * board.getCols();
+      for (int i = 0; i < alive.length; i++)
+      {
+        int at = traps ? board.trapSquare(i) : board.prizeSquare(i);
+        if (alive[i] && at == square) return i;
+      }
+      return -1;
+    }
+
+    private void award(ScoreEvent event, int context)
+    {
+      score += rules.delta(event, context);
+      events.append(event).append(' ');
+    }
+  }
+
+  /**
+   * A failing sequence and why it failed.
+   */
+  static class Failure
+  {
+    final long boardSeed;
+    final int[] commands;
+    final String reason;
+
+    Failure(long boardSeed, int[] commands, String reason)
+    {
+      this.boardSeed = boardSeed;
+      this.commands = commands;
+      this.reason = reason;
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException
+  {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : new Random().nextLong();
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    final AtomicLong sequences = new AtomicLong();
+    final AtomicLong commands = new AtomicLong();
+    final AtomicReference<Failure> failure = new AtomicReference<Failure>();
+    final long deadline = System.nanoTime() + seconds * 1000000000L;
+
+    System.out.println("Fuzzing for " + seconds + "s on " + threads + " threads, seed " + seed);
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    for (int t = 0; t < threads; t++)
+    {
+      final Random rand = new Random(seed + t);
+      pool.execute(() -> {
+        int[] seq = new int[MAX_LENGTH];
+        while (System.nanoTime() < deadline && failure.get() == null)
+        {
+          long boardSeed = rand.nextLong();
+          Board board = randomBoard(boardSeed);
+          // many sequences per board so generation does not dominate
+          for (int k = 0; k < 64; k++)
+          {
+            int len = 1 + rand.nextInt(MAX_LENGTH);
+            for (int i = 0; i < len; i++)
+            {
+              seq[i] = randomCommand(rand);
+            }
+            String reason = check(board, seq, len);
+            sequences.incrementAndGet();
+            commands.addAndGet(len);
+            if (reason != null)
+            {
+              failure.compareAndSet(null, new Failure(boardSeed, java.util.Arrays.copyOf(seq, len), reason));
+              break;
+            }
+          }
+        }
+      });
+    }
+    pool.shutdown();
+    pool.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+
+    double secs = Math.max(seconds, 1);
+    System.out.printf("%d sequences (%.0f/s), %d commands (%.0f/s)%n",
+        sequences.get(), sequences.get() / secs, commands.get(), commands.get() / secs);
+
+    Failure f = failure.get();
+    if (f == null)
+    {
+      System.out.println("All invariants held.");
+      return;
+    }
+    Board board = randomBoard(f.boardSeed);
+    int[] small = shrink(board, f.commands);
+    System.out.println("FAILED: " + check(board, small, small.length));
+    System.out.println("Board seed " + f.boardSeed + ", " + board.getCols() + "x" + board.getRows()
+        + ", walls " + board.getTotalWalls() + ", traps " + board.getTotalTraps() + ", prizes " + board.getTotalPrizes());
+    System.out.println("Shrunk from " + f.commands.length + " to " + small.length + " commands:");
+    for (int c : small)
+    {
+      System.out.println("  " + describe(c));
+    }
+    System.exit(1);
+  }
+
+  /*
+   * Run a sequence on a fresh session, returning why it failed or null if all is well.
+   */
+  static String check(Board board, int[] seq, int len)
+  {
+    PlayerSession s = new PlayerSession(board);
+    Model m = new Model(board);
+    final StringBuilder reported = new StringBuilder();
+    s.setListener((event, square, delta) -> reported.append(event).append(' '));
+    int returned = 0;
+    int expectedSteps = 0;
+    boolean[] prizeGone = new boolean[board.getTotalPrizes()];
+    boolean[] trapGone = new boolean[board.getTotalTraps()];
+
+    for (int i = 0; i < len; i++)
+    {
+      int c = seq[i];
+      int op = c % 16;
+      int dir = (c / 16) % 4;
+      int n = c / 64;
+      boolean counts = !s.hasWon();
+      reported.setLength(0);
+      m.events.setLength(0);
+      switch (op)
+      {
+        case MOVE:
+          returned += s.move(DC[dir], DR[dir]);
+          m.travel(DC[dir], DR[dir], 1, true, ScoreRules.STEP);
+          break;
+        case DASH:
+          returned += s.dash(DC[dir], DR[dir], n);
+          m.travel(DC[dir], DR[dir], n, true, ScoreRules.DASH);
+          break;
+        case JUMP:
+          returned += s.jump(DC[dir], DR[dir], n);
+          m.travel(DC[dir], DR[dir], n, false, ScoreRules.JUMP);
+          break;
+        case SPRING: returned += s.springTrap(); m.spring(); counts = false; break;
+        case PICKUP: returned += s.pickupPrize(); m.pickup(); counts = false; break;
+        case END: returned += s.end(); m.end(); counts = false; break;
+        default:
+          s.reset();
+          m.reset();
+          returned = 0;
+          expectedSteps = 0;
+          counts = false;
+          java.util.Arrays.fill(prizeGone, false);
+          java.util.Arrays.fill(trapGone, false);
+      }
+      if (counts) expectedSteps++;
+
+      String where = " after command " + (i + 1) + " (" + describe(c) + ")";
+      if (!reported.toString().equals(m.events.toString()))
+        return "events [" + reported.toString().trim() + "] but the rules give [" + m.events.toString().trim() + "]" + where;
+      if (s.getScore() != m.score)
+        return "score " + s.getScore() + " but the rules give " + m.score + where;
+      if (s.getCol() != m.col || s.getRow() != m.row || s.hasWon() != m.won)
+        return "player at " + s.getCol() + "," + s.getRow() + " but the rules give " + m.col + "," + m.row + where;
+      if (s.getPendingTrap() != m.pendingTrap)
+        return "waiting trap " + s.getPendingTrap() + " but the rules give " + m.pendingTrap + where;
+      if (s.getScore() != returned)
+        return "score " + s.getScore() + " but returned changes add up to " + returned + where;
+      if (s.getSteps() != expectedSteps)
+        return "steps " + s.getSteps() + " but " + expectedSteps + " moves were made" + where;
+      for (int p = 0; p < prizeGone.length; p++)
+      {
+        if (s.prizeAlive(p) != m.prizeAlive[p]) return "prize " + p + " differs from the rules" + where;
+        if (prizeGone[p] && s.prizeAlive(p)) return "prize " + p + " came back" + where;
+        prizeGone[p] = !s.prizeAlive(p);
+      }
+      for (int t = 0; t < trapGone.length; t++)
+      {
+        if (s.trapAlive(t) != m.trapAlive[t]) return "trap " + t + " differs from the rules" + where;
+        if (trapGone[t] && s.trapAlive(t)) return "trap " + t + " came back" + where;
+        trapGone[t] = !s.trapAlive(t);
+      }
+      boolean onBoard = s.getCol() >= 0 && s.getCol() < board.getCols() && s.getRow() >= 0 && s.getRow() < board.getRows();
+      boolean escaped = s.hasWon() && s.getCol() == board.getCols();
+      if (!onBoard && !escaped)
+        return "player at " + s.getCol() + "," + s.getRow() + where;
+    }
+    return null;
+  }
+
+  /*
+   * Find a shorter sequence that still fails: drop ever smaller chunks of commands for as
+   * long as the failure stays.
+   */
+  static int[] shrink(Board board, int[] seq)
+  {
+    int[] best = seq;
+    int chunk = Math.max(1, best.length / 2);
+    while (chunk >= 1)
+    {
+      boolean removed = false;
+      for (int start = 0; start + chunk <= best.length; )
+      {
+        int[] candidate = new int[best.length - chunk];
+        System.arraycopy(best, 0, candidate, 0, start);
+        System.arraycopy(best, start + chunk, candidate, start, best.length - start - chunk);
+        if (candidate.length > 0 && check(board, candidate, candidate.length) != null)
+        {
+          best = candidate;
+          removed = true;
+        }
+        else
+        {
+          start += chunk;
+        }
+      }
+      if (!removed) chunk /= 2;
+    }
+    return best;
+  }
+
+  private static Board randomBoard(long seed)
+  {
+    Random r = new Random(seed);
+    int cols = 2 + r.nextInt(12);
+    int rows = 2 + r.nextInt(8);
+    return Board.generate(seed, cols, rows, r.nextInt(cols * rows), r.nextInt(8), r.nextInt(8));
+  }
+
+  private static int randomCommand(Random rand)
+  {
+    int op = rand.nextInt(OPS);
+    // resets are rare so sequences get somewhere
+    if (op == RESET && rand.nextInt(8) != 0) op = MOVE;
+    return op + 16 * (rand.nextInt(4) + 4 * (1 + rand.nextInt(4)));
+  }
+
+  private static String describe(int c)
+  {
+    int op = c % 16;
+    String s = OP_NAMES[op];
+    if (op <= JUMP)
+    {
+      s += " " + DIR_NAMES[(c / 16) % 4];
+      if (op != MOVE) s += " " + (c / 64);
+    }
+    return s;
+  }
+}
@@ -3,7 +3,6 @@ import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Image;
-import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
@@ -21,44 +20,36 @@ import javax.swing.JOptionPane;
  * @author PLTW
  * @version 1.0
  */
-public class GameGUI extends JComponent
+public class GameGUI extends JComponent implements BoardView
 {
   static final long serialVersionUID = 141L; // problem 1.4.1
 
   private static final int WIDTH = 510;
   private static final int HEIGHT = 360;
-  private static final int SPACE_SIZE = 60;
   private static final int GRID_W = 8;
   private static final int GRID_H = 5;
   private static final int START_LOC_X = 15;
   private static final int START_LOC_Y = 15;
   
-  // initial placement of player
-  int x = START_LOC_X; 
-  int y = START_LOC_Y;
-
   // grid image to show in background
   private Image bgImage;
 
-  // player image and info
+  // player image; where every player is, their steps and score are kept in the player table
   private Image player;
-  private Point playerLoc;
-  private int playerSteps;
-  // score to display in GUI
-  private int guiScore = 0;
 
   /**
    * Update the score displayed in the GUI.
    */
   public void setScore(int s)
   {
-    guiScore = s;
-    repaint();
+    players.setScore(activePlayer, s);
+    spectators.publish(SpectatorFeed.SCORE_CHANGED, 0, s);
+    requestFrame();
   }
 
   public int getGuiScore()
   {
-    return guiScore;
+    return players.getScore(activePlayer);
   }
 
   // walls, prizes, traps
@@ -72,13 +63,32 @@ public class GameGUI extends JComponent
   // keep original locations so replay can restore exact original positions
   private Rectangle[] origPrizes;
   private Rectangle[] origTraps;
+  // layout the rectangles are built from; also shared with headless games of the same room
+  private Board board;
+  // seed the current board was generated from, so the same room can be recreated
+  private long boardSeed;
+
+  // scores and score messages, read from scoring.properties
+  private final ScoreRules rules = ScoreRules.get();
+
+  // where things happen on each board; the latest counts for this board are drawn over it
+  // while showHeat is on (O key)
+  private final HeatmapAggregator heatmaps = new HeatmapAggregator();
+  private PlayerSession.Listener heatCounter;
+  private volatile HeatmapAggregator.Heatmap heat;
+  private boolean showHeat = false;
+  private static final int HEAT_MS = 1000;
+
+  // boards made in the background for R
+  private final BoardPool pool = new BoardPool(16);
 
-  // scores, sometimes awarded as (negative) penalties
-  private int prizeVal = 1;
-  private int trapVal = 5;
-  private int endVal = 10;
-  private int offGridVal = 5; // penalty only
-  private int hitWallVal = 5;  // penalty only
+  // where the game is saved as it is played, and under which id
+  private CheckpointJournal journal;
+  private long journalId;
+
+  // moves from every square to the exit, for hints (H key) and shading (F key)
+  private DistanceField distances;
+  private boolean showDistances = false;
 
   // game frame
   private JFrame frame;
@@ -98,8 +108,32 @@ public class GameGUI extends JComponent
   // Add this field at the top of your class:
   private String scoreMsg = "";
 
-  // Add a field to track game state
-  private boolean gameWon = false;
+  // live feed of board changes for spectators
+  private final SpectatorFeed spectators = new SpectatorFeed(this::spectatorSnapshot);
+
+  // snapshots taken before each move so moves can be undone and redone
+  private final UndoHistory history = new UndoHistory();
+
+  // game loop: keys are queued and handled once per logic tick, painting runs on its own timer
+  private static final int TICK_MS = 50;
+  private static final int FRAME_MS = 16;
+  private final KeyInput keys = new KeyInput();
+  private javax.swing.Timer logicTimer;
+  private javax.swing.Timer frameTimer;
+  private volatile boolean frameDirty = true;
+  // while quiet, messages are not printed and frames are held until quiet ends
+  private volatile boolean quiet = false;
+  private volatile boolean heldFrame = false;
+
+  // marks a shifted arrow key in the key queue; shift+arrow dashes
+  private static final int SHIFT = 1 << 20;
+  // squares for the next dash or jump, set with the number keys, 0 for the default
+  private int pendingCount = 0;
+
+  // everybody playing this board, the active player included; EscapeRoom.score follows the
+  // active player's score, which setScore() stores here
+  private PlayerTable players = new PlayerTable(1);
+  private int activePlayer = 0;
 
   /**
    * Constructor for the GameGUI class.
@@ -125,8 +159,6 @@ public class GameGUI extends JComponent
     } catch (Exception e) {
      System.err.println("Could not open file player.png");
     }
-    // save player location
-    playerLoc = new Point(x,y);
 
     // create the game frame
     frame = new JFrame();
@@ -157,100 +189,55 @@ public class GameGUI extends JComponent
 
     //use arrow keys to move player around the board
     this.setFocusable(true);
+    // TAB passes the turn to the next player instead of moving focus
+    this.setFocusTraversalKeysEnabled(false);
     this.requestFocusInWindow();
 
     this.addKeyListener(new KeyAdapter() {
       @Override
       public void keyPressed(KeyEvent e) {
         int key = e.getKeyCode();
-        if (key == KeyEvent.VK_RIGHT) {
-          movePlayer(SPACE_SIZE, 0);
-          lastDx = SPACE_SIZE;
-          lastDy = 0;
-        } else if (key == KeyEvent.VK_LEFT) {
-          movePlayer(-SPACE_SIZE, 0);
-          lastDx = -SPACE_SIZE;
-          lastDy = 0;
-        } else if (key == KeyEvent.VK_DOWN) {
-          movePlayer(0, SPACE_SIZE);
-          lastDx = 0;
-          lastDy = SPACE_SIZE;
-        } else if (key == KeyEvent.VK_UP) {
-          movePlayer(0, -SPACE_SIZE);
-          lastDx = 0;
-          lastDy = -SPACE_SIZE;
-        } else if (key == KeyEvent.VK_D) { // D key for disarm
-          if (onTrap && currentTrap != null && currentTrap.getWidth() > 0) {
-            // Disarm the trap in time
-            System.out.println("TRAP IS SPRUNG!");
-            EscapeRoom.score += 5;
-            setScore(EscapeRoom.score);
-            scoreMsg = "+5 from disarming trap";
-            currentTrap.setSize(0, 0);
-            repaint();
-            onTrap = false;
-            // clear tint and stop timer
-            trapTint = false;
-            if (trapTimer != null && trapTimer.isRunning()) {
-              trapTimer.stop();
-            }
-            currentTrap = null;
-          } else {
-            int result = springTrap(0, 0);
-            EscapeRoom.score += result;
-            setScore(EscapeRoom.score);
-          }
-          GameGUI.this.requestFocusInWindow();
-        } else if (key == KeyEvent.VK_SPACE) { // Spacebar for jump
-          // Only jump if a direction has been set
-          if (lastDx != 0 || lastDy != 0) {
-            // Check for walls in both spaces
-            boolean blocked = false;
-            int currX = x;
-            int currY = y;
-            for (int i = 1; i <= 2; i++) {
-              int testX = currX + lastDx / 2 * i;
-              int testY = currY + lastDy / 2 * i;
-              for (Rectangle r : walls) {
-                if (r.contains(testX, testY)) {
-                  blocked = true;
-                  break;
-                }
-              }
-              if (blocked) break;
-            }
-            if (!blocked) {
-              movePlayer(lastDx * 2 / Math.abs(lastDx + lastDy == 0 ? 1 : 1), lastDy * 2 / Math.abs(lastDx + lastDy == 0 ? 1 : 1));
-            } else {
-              System.out.println("Can't jump over a wall!");
-            }
-          }
-        } else if (key == KeyEvent.VK_R) {
-      // allow R to restart: generate a new board and reset state
-      // stop any running trap timer
-      if (trapTimer != null && trapTimer.isRunning()) trapTimer.stop();
-      onTrap = false;
-      currentTrap = null;
-      trapTint = false;
-      // regenerate the board (new walls/prizes/traps)
-      createBoard();
-      // reset player and score
-      x = START_LOC_X;
-      y = START_LOC_Y;
-      playerSteps = 0;
-      EscapeRoom.score = 0;
-      setScore(0);
-      gameWon = false;
-      // clear any temporary score message (magenta text)
-      scoreMsg = "";
-      repaint();
-        } else if (key == KeyEvent.VK_Q) {
-            // allow Q to quit the game
-            endGame();
-            System.exit(0);
+        boolean move = key == KeyEvent.VK_RIGHT || key == KeyEvent.VK_LEFT
+            || key == KeyEvent.VK_DOWN || key == KeyEvent.VK_UP;
+        if (move && e.isShiftDown()) {
+          keys.press(key | SHIFT, false);
+        } else {
+          keys.press(key, move);
         }
       }
+
+      @Override
+      public void keyReleased(KeyEvent e) {
+        keys.release(e.getKeyCode());
+      }
+    });
+
+    // one queued key per logic tick, so held keys cannot flood the event thread
+    logicTimer = new javax.swing.Timer(TICK_MS, evt -> {
+      int key = keys.next();
+      if (key >= 0) {
+        handleKey(key);
+        checkpoint();
+      }
+    });
+    logicTimer.start();
+    // paint at most once per frame, however many changes happened since the last one
+    frameTimer = new javax.swing.Timer(FRAME_MS, evt -> {
+      if (frameDirty) {
+        frameDirty = false;
+        repaint();
+      }
     });
+    frameTimer.start();
+
+    // keep the heatmap overlay up to date with the counts for the board being played
+    heatmaps.subscribe(map -> {
+      if (map.getSeed() == boardSeed) {
+        heat = map;
+        if (showHeat) requestFrame();
+      }
+    });
+    heatmaps.start(HEAT_MS);
     
     // finalize the Info button placement and behavior at the top-right
     infoButton.setBounds(WIDTH - btnW - 30, 6, btnW, btnH);
@@ -280,6 +267,31 @@ public class GameGUI extends JComponent
 
   public void createBoard()
   {
+    createBoard(new Random().nextLong());
+  }
+
+  /**
+   * Add the walls, prizes, and traps to the gameboard using the given seed. The same seed and
+   * configuration always produce the same board.
+   * <P>
+   * @param seed seed for the random placement of walls, prizes, and traps
+   */
+  public void createBoard(long seed)
+  {
+    // popular rooms are generated and analysed once
+    useBoard(BoardCache.shared().get(seed, GRID_W, GRID_H, totalWalls, totalTraps, totalPrizes));
+  }
+
+  /*
+   * Build the walls, prizes and traps of a board that is ready, and start over on it.
+   */
+  private void useBoard(BoardCache.Entry cached)
+  {
+    // only the board being played is shown, so its counts are the only ones worth keeping
+    if (board != null && board.getSeed() != cached.getBoard().getSeed()) heatmaps.forget(board);
+    board = cached.getBoard();
+    boardSeed = board.getSeed();
+
     traps = new Rectangle[totalTraps];
     createTraps();
     
@@ -288,6 +300,101 @@ public class GameGUI extends JComponent
 
     walls = new Rectangle[totalWalls];
     createWalls();
+
+    resetPlayers();
+    history.clear();
+    spectators.resync();
+    heatCounter = heatmaps.listener(board);
+    heat = heatmaps.snapshot(board);
+    distances = cached.getDistances();
+    // have the next board ready for a restart
+    pool.prepare(GRID_W, GRID_H, totalWalls, totalTraps, totalPrizes);
+  }
+
+  /**
+   * Return the seed the current board was generated from.
+   * <P>
+   * @return the board seed
+   */
+  public long getSeed()
+  {
+    return boardSeed;
+  }
+
+  /**
+   * Return the layout of the current board. The board never changes, so it can be handed to
+   * PlayerSessions to play the same room without Swing.
+   * <P>
+   * @return the current board
+   */
+  public Board getBoard()
+  {
+    return board;
+  }
+
+  /**
+   * Return the column of the square the player is on.
+   * <P>
+   * @return the player's column, or the number of columns once the player has escaped
+   */
+  public int getCol()
+  {
+    return players.getCol(activePlayer);
+  }
+
+  /**
+   * Return the row of the square the player is on.
+   * <P>
+   * @return the player's row
+   */
+  public int getRow()
+  {
+    return players.getRow(activePlayer);
+  }
+
+  /**
+   * Check whether a prize is still on the board.
+   * <P>
+   * @param i prize number
+   * @return true if prize i has not been picked up
+   */
+  public boolean prizeAlive(int i)
+  {
+    return prizes[i].getWidth() > 0;
+  }
+
+  /**
+   * Return the score shown to the player.
+   * <P>
+   * @return the score
+   */
+  public int getScore()
+  {
+    return players.getScore(activePlayer);
+  }
+
+  /**
+   * Suggest the best next move towards the exit, counting jumps. Walls only; traps are hidden
+   * and other players may move out of the way.
+   * <P>
+   * @return the move and how many moves are left, e.g. "jump right, 3 moves to the exit"
+   */
+  public String hint()
+  {
+    int d = distances.distance(getCol(), getRow());
+    if (d == 0) return "you are out";
+    if (d == DistanceField.UNREACHABLE) return "no way out from here";
+    return DistanceField.describe(distances.hint(getCol(), getRow())) + ", " + d + (d == 1 ? " move" : " moves") + " to the exit";
+  }
+
+  /**
+   * Return the feed spectators can subscribe to in order to watch this game.
+   * <P>
+   * @return the spectator feed
+   */
+  public SpectatorFeed getSpectatorFeed()
+  {
+    return spectators;
   }
 
   /**
@@ -300,19 +407,23 @@ public class GameGUI extends JComponent
    * <P>
    * @param incrx amount to move player in x direction
    * @param incry amount to move player in y direction
-   * @return penalty score for hitting a wall or potentially going off the grid, 0 otherwise
+   * @return the change in score (a penalty for hitting a wall or going off the grid, a bonus
+   *         for walking onto a prize, 0 otherwise); the caller adds it to the score
    */
   public int movePlayer(int incrx, int incry)
   {
+    history.record(snapshot());
+    int x = playerX();
+    int y = playerY();
     int newX = x + incrx;
     int newY = y + incry;
     
     // increment regardless of whether player really moves
-    playerSteps++;
+    players.step(activePlayer);
 
     // check if off grid horizontally and vertically
     // Special case: attempting to move off the right edge should end the game
-    if (newX > WIDTH - SPACE_SIZE)
+    if (newX > WIDTH - BoardPainter.SPACE_SIZE)
     {
       // check if a wall is in the way between current x and the off-grid point
       for (Rectangle r: walls)
@@ -324,35 +435,35 @@ public class GameGUI extends JComponent
         if ((incrx > 0) && (x <= startX) && (startX <= newX) && (y >= startY) && (y <= endY))
         {
           // wall blocks exit to the right: treat as hitting a wall
-          System.out.println("A WALL IS IN THE WAY");
-          EscapeRoom.score -= 1;
-          setScore(EscapeRoom.score);
-          scoreMsg = "-1 from running into a wall";
-          repaint();
-          return -hitWallVal;
+          say("A WALL IS IN THE WAY");
+          requestFrame();
+          return scored(ScoreEvent.HIT_WALL, ScoreRules.STEP, getCol(), getRow());
         }
       }
 
       // no wall blocking: player exits to the right and wins
-      System.out.println("YOU MADE IT OFF THE GRID!");
-      // move player off the grid so other logic that checks playerLoc will recognize end
-      x = newX;
-      playerLoc.setLocation(x, y);
-      gameWon = true;
-      scoreMsg = "You win! Final score: " + EscapeRoom.score;
-      repaint();
+      say("YOU MADE IT OFF THE GRID!");
+      // move player off the grid so other logic that checks the location will recognize end
+      placePlayer(colAt(newX), getRow());
+      scoreMsg = "You win! Final score: " + getScore();
+      requestFrame();
       return 0;
     }
 
     // normal off-grid handling (other sides) -> penalty
-    if ( (newX < 0 || newY < 0 || newY > HEIGHT-SPACE_SIZE) )
+    if ( (newX < 0 || newY < 0 || newY > HEIGHT-BoardPainter.SPACE_SIZE) )
     {
-      System.out.println ("OFF THE GRID!");
-      EscapeRoom.score -= 1;
-      setScore(EscapeRoom.score);
-      scoreMsg = "-1 from going off the grid";
-      repaint();
-      return -offGridVal;
+      say("OFF THE GRID!");
+      requestFrame();
+      return scored(ScoreEvent.OFF_GRID, ScoreRules.STEP, getCol(), getRow());
+    }
+
+    // another player in the way counts as a wall
+    if (players.occupied(colAt(newX), rowAt(newY), activePlayer))
+    {
+      say("ANOTHER PLAYER IS IN THE WAY");
+      requestFrame();
+      return scored(ScoreEvent.HIT_PLAYER, ScoreRules.STEP, getCol(), getRow());
     }
 
     // determine if a wall is in the way
@@ -365,113 +476,88 @@ public class GameGUI extends JComponent
 
       if ((incrx > 0) && (x <= startX) && (startX <= newX) && (y >= startY) && (y <= endY))
       {
-        System.out.println("A WALL IS IN THE WAY");
-        EscapeRoom.score -= 1;
-        setScore(EscapeRoom.score);
-        scoreMsg = "-1 from running into a wall";
-        repaint();
-        return -hitWallVal;
+        say("A WALL IS IN THE WAY");
+        requestFrame();
+        return scored(ScoreEvent.HIT_WALL, ScoreRules.STEP, getCol(), getRow());
       }
       else if ((incrx < 0) && (x >= startX) && (startX >= newX) && (y >= startY) && (y <= endY))
       {
-        System.out.println("A WALL IS IN THE WAY");
-        EscapeRoom.score -= 1;
-        setScore(EscapeRoom.score);
-        scoreMsg = "-1 from running into a wall";
-        repaint();
-        return -hitWallVal;
+        say("A WALL IS IN THE WAY");
+        requestFrame();
+        return scored(ScoreEvent.HIT_WALL, ScoreRules.STEP, getCol(), getRow());
       }
       else if ((incry > 0) && (y <= startY && startY <= newY && x >= startX && x <= endX))
       {
-        System.out.println("A WALL IS IN THE WAY");
-        EscapeRoom.score -= 1;
-        setScore(EscapeRoom.score);
-        scoreMsg = "-1 from running into a wall";
-        repaint();
-        return -hitWallVal;
+        say("A WALL IS IN THE WAY");
+        requestFrame();
+        return scored(ScoreEvent.HIT_WALL, ScoreRules.STEP, getCol(), getRow());
       }
       else if ((incry < 0) && (y >= startY) && (startY >= newY) && (x >= startX) && (x <= endX))
       {
-        System.out.println("A WALL IS IN THE WAY");
-        EscapeRoom.score -= 1;
-        setScore(EscapeRoom.score);
-        scoreMsg = "-1 from running into a wall";
-        repaint();
-        return -hitWallVal;
+        say("A WALL IS IN THE WAY");
+        requestFrame();
+        return scored(ScoreEvent.HIT_WALL, ScoreRules.STEP, getCol(), getRow());
       }     
     }
 
     // check for trap at new location
-    for (Rectangle r : traps)
-    {
-      if (r.getWidth() > 0 && r.contains(newX, newY))
-      {
-        onTrap = true;
-        currentTrap = r;
-
-        // set tint and notify in terminal
-        trapTint = true;
-        System.out.println("You stepped on a trap! You have 2 seconds to disarm it.");
-        repaint();
-
-        // If a previous timer is running, stop it
-        if (trapTimer != null && trapTimer.isRunning()) {
-          trapTimer.stop();
-        }
-
-        // Start a new timer for 2 seconds (2000 ms)
-        trapTimer = new javax.swing.Timer(2000, evt -> {
-          if (onTrap && currentTrap != null && currentTrap.getWidth() > 0) {
-            System.out.println("Trap triggered! -10 points.");
-            EscapeRoom.score -= 10;
-            setScore(EscapeRoom.score);
-            scoreMsg = "-10 from not disarming a trap";
-            // Remove the trap
-            currentTrap.setSize(0, 0);
-            // clear tint and state
-            trapTint = false;
-            repaint();
-            onTrap = false;
-            currentTrap = null;
-          }
-        });
-        trapTimer.setRepeats(false);
-        trapTimer.start();
-        break;
-      }
-    }
+    armTrapAt(newX, newY);
 
     // check for prize at new location (coin)
-    for (Rectangle p : prizes)
+    for (int i = 0; i < prizes.length; i++)
     {
+      Rectangle p = prizes[i];
       if (p.getWidth() > 0 && p.contains(newX, newY))
       {
-        System.out.println("YOU PICKED UP A PRIZE!");
-        // increment the global score and update GUI display
-        EscapeRoom.score += 5;
-        setScore(EscapeRoom.score);
-        scoreMsg = "+5 from coin";
+        say("YOU PICKED UP A PRIZE!");
         // remove the prize so it cannot be picked up again
         p.setSize(0,0);
+        spectators.publish(SpectatorFeed.PRIZE_REMOVED, i, 0);
         // move player onto the prize square so graphics update correctly
-        x += incrx;
-        y += incry;
-        repaint();
-        // return 0 because the GUI already updated the global score
-        return 0;
+        placePlayer(colAt(newX), rowAt(newY));
+        requestFrame();
+        return scored(ScoreEvent.PRIZE_STEP, ScoreRules.STEP, getCol(), getRow());
       }
     }
 
     // all is well, move player
-    x += incrx;
-    y += incry;
-    playerLoc.setLocation(x, y);
-    repaint();
+    placePlayer(colAt(newX), rowAt(newY));
+    requestFrame();
 
   // (win condition is now when player moves off the right edge without a blocking wall)
     return 0;   
   }
 
+  /**
+   * Dash up to n squares in a straight line, counted as one step. Prizes on every square passed
+   * are picked up. The dash stops early on a trap, in front of a wall or at the edge of the grid
+   * (both a penalty), or by leaving through the right edge, which wins the game.
+   * <P>
+   * @param dc column change per square, -1, 0 or 1
+   * @param dr row change per square, -1, 0 or 1
+   * @param n most squares to dash
+   * @return the change in score, which the caller adds to the score
+   */
+  public int dashPlayer(int dc, int dr, int n)
+  {
+    return travelPlayer(dc, dr, n, true);
+  }
+
+  /**
+   * Jump exactly n squares in a straight line, counted as one step. Only the landing square
+   * counts for prizes and traps. A wall or the edge of the grid on the way is a penalty and
+   * the player stays put, except that jumping off the right edge wins the game.
+   * <P>
+   * @param dc column change per square, -1, 0 or 1
+   * @param dr row change per square, -1, 0 or 1
+   * @param n squares to jump
+   * @return the change in score, which the caller adds to the score
+   */
+  public int jumpPlayer(int dc, int dr, int n)
+  {
+    return travelPlayer(dc, dr, n, false);
+  }
+
   /**
    * Check for a trap where the player will land
    *
@@ -484,8 +570,8 @@ public class GameGUI extends JComponent
    */
   public boolean isTrap(int newx, int newy)
   {
-    double px = x + newx;
-    double py = y + newy;
+    double px = playerX() + newx;
+    double py = playerY() + newy;
 
     for (Rectangle r : traps)
     {
@@ -511,28 +597,29 @@ public class GameGUI extends JComponent
    */
   public int springTrap(int newx, int newy)
   {
-    double px = x + newx;
-    double py = y + newy;
+    history.record(snapshot());
+    double px = playerX() + newx;
+    double py = playerY() + newy;
 
-    for (Rectangle r : traps)
+    for (int i = 0; i < traps.length; i++)
     {
+      Rectangle r = traps[i];
       if (r.contains(px, py))
       {
         // zero size traps indicate it has been sprung, cannot spring again, so ignore
         if (r.getWidth() > 0)
         {
           r.setSize(0, 0);
-          System.out.println("TRAP IS SPRUNG!");
-          scoreMsg = "+5 from disarming trap";
-          repaint();
-          return trapVal;
+          spectators.publish(SpectatorFeed.TRAP_SPRUNG, i, 0);
+          say("TRAP IS SPRUNG!");
+          requestFrame();
+          return scored(ScoreEvent.TRAP_SPRUNG, ScoreRules.STEP, colAt(px), rowAt(py));
         }
       }
     }
     // no trap here, penalty
-    System.out.println("THERE IS NO TRAP HERE TO SPRING");
-    scoreMsg = "-5 from trying to spring a non-existent trap";
-    return -trapVal;
+    say("THERE IS NO TRAP HERE TO SPRING");
+    return scored(ScoreEvent.TRAP_MISSING, ScoreRules.STEP, colAt(px), rowAt(py));
   }
 
   /**
@@ -542,26 +629,210 @@ public class GameGUI extends JComponent
    */
   public int pickupPrize()
   {
-    double px = playerLoc.getX();
-    double py = playerLoc.getY();
+    history.record(snapshot());
+    double px = playerX();
+    double py = playerY();
 
-    for (Rectangle p: prizes)
+    for (int i = 0; i < prizes.length; i++)
     {
+      Rectangle p = prizes[i];
       // DEBUG: System.out.println("prizex:" + p.getX() + " prizey:" + p.getY() + "\npx: " + px + " py:" + py);
       // if location has a prize, pick it up
       if (p.getWidth() > 0 && p.contains(px, py))
       {
-        System.out.println("YOU PICKED UP A PRIZE!");
-        scoreMsg = "+5 from coin";
+        say("YOU PICKED UP A PRIZE!");
         p.setSize(0,0);
-        repaint();
-        return prizeVal;
+        spectators.publish(SpectatorFeed.PRIZE_REMOVED, i, 0);
+        requestFrame();
+        return scored(ScoreEvent.PRIZE_PICKUP, ScoreRules.STEP, getCol(), getRow());
       }
     }
-    System.out.println("OOPS, NO PRIZE HERE");
-    scoreMsg = "-5 from trying to pick up a non-existent prize";
-    repaint();
-    return -prizeVal;  
+    say("OOPS, NO PRIZE HERE");
+    requestFrame();
+    return scored(ScoreEvent.PRIZE_MISSING, ScoreRules.STEP, getCol(), getRow());
+  }
+
+  /**
+   * Undo the last move, pickup, or trap action, restoring position, score, steps, prizes and traps.
+   * <P>
+   * @return true if a move was undone, false if there was nothing to undo
+   */
+  public boolean undo()
+  {
+    BoardSnapshot s = history.undo(snapshot());
+    if (s == null) return false;
+    restore(s);
+    return true;
+  }
+
+  /**
+   * Redo a move that was undone.
+   * <P>
+   * @return true if a move was redone, false if there was nothing to redo
+   */
+  public boolean redo()
+  {
+    BoardSnapshot s = history.redo(snapshot());
+    if (s == null) return false;
+    restore(s);
+    return true;
+  }
+
+  /**
+   * Take a snapshot of the current game. Snapshots are unchangeable and cheap, so they can be
+   * kept, for example, to explore several lines of play from the same position.
+   * <P>
+   * @return snapshot of player location, score, steps, prizes and traps
+   */
+  public BoardSnapshot snapshot()
+  {
+    return BoardSnapshot.of(history.latest(), playerX(), playerY(), getScore(), getSteps(),
+        aliveFlags(prizes), aliveFlags(traps));
+  }
+
+  /**
+   * Put the game back into the state of a snapshot taken on the current board.
+   * <P>
+   * @param s snapshot to restore
+   */
+  public void restore(BoardSnapshot s)
+  {
+    // a pending trap belongs to the state being left
+    if (trapTimer != null && trapTimer.isRunning()) trapTimer.stop();
+    onTrap = false;
+    currentTrap = null;
+    trapTint = false;
+
+    players.set(activePlayer, colAt(s.getX()), rowAt(s.getY()), s.getSteps(), s.getScore());
+    for (int i = 0; i < prizes.length; i++) {
+      prizes[i].setSize(s.prizeAlive(i) ? (int)origPrizes[i].getWidth() : 0, s.prizeAlive(i) ? (int)origPrizes[i].getHeight() : 0);
+    }
+    for (int i = 0; i < traps.length; i++) {
+      traps[i].setSize(s.trapAlive(i) ? (int)origTraps[i].getWidth() : 0, s.trapAlive(i) ? (int)origTraps[i].getHeight() : 0);
+    }
+    EscapeRoom.score = s.getScore();
+    scoreMsg = "";
+    spectators.resync();
+    setScore(EscapeRoom.score);
+  }
+
+  /**
+   * Return the active player's game as a PlayerSession on the same board, for example to save
+   * it. A trap waiting to be sprung is left out.
+   * <P>
+   * @return a new session in the state of the game
+   */
+  public PlayerSession toSession()
+  {
+    PlayerSession s = new PlayerSession(board, rules);
+    s.restore(getCol(), getRow(), getScore(), getSteps(), hasWon(), -1,
+        aliveFlags(prizes), aliveFlags(traps));
+    return s;
+  }
+
+  /**
+   * Continue a game saved with toSession(), on its board.
+   * <P>
+   * precondition: the session's board is as big as this one
+   * <P>
+   * @param s the saved game
+   */
+  public void resume(PlayerSession s)
+  {
+    Board b = s.getBoard();
+    if (b.getCols() != GRID_W || b.getRows() != GRID_H)
+    {
+      throw new IllegalArgumentException("board must be " + GRID_W + "x" + GRID_H);
+    }
+    totalWalls = b.getTotalWalls();
+    totalTraps = b.getTotalTraps();
+    totalPrizes = b.getTotalPrizes();
+    createBoard(b.getSeed());
+    boolean[] prizeAlive = new boolean[totalPrizes];
+    for (int i = 0; i < totalPrizes; i++) prizeAlive[i] = s.prizeAlive(i);
+    boolean[] trapAlive = new boolean[totalTraps];
+    for (int i = 0; i < totalTraps; i++) trapAlive[i] = s.trapAlive(i);
+    restore(BoardSnapshot.of(null, START_LOC_X + s.getCol() * BoardPainter.SPACE_SIZE,
+        START_LOC_Y + s.getRow() * BoardPainter.SPACE_SIZE, s.getScore(), s.getSteps(), prizeAlive, trapAlive));
+  }
+
+  /**
+   * Save the game to a journal after every key and every checkpoint() call.
+   * <P>
+   * @param journal the journal, or null to stop saving
+   * @param id id of this game in the journal
+   */
+  public void setJournal(CheckpointJournal journal, long id)
+  {
+    this.journal = journal;
+    this.journalId = id;
+  }
+
+  /**
+   * Note the game's current state in the journal given to setJournal; it is written at the
+   * journal's next checkpoint.
+   */
+  public void checkpoint()
+  {
+    if (journal != null && board != null) journal.update(journalId, toSession());
+  }
+
+  /**
+   * Set how many players share the board and put them all on the start square with no score.
+   * The first player moves first.
+   * <P>
+   * precondition: n is between 1 and 64
+   * <P>
+   * @param n number of players
+   */
+  public void setPlayers(int n)
+  {
+    players = new PlayerTable(n);
+    activePlayer = 0;
+    teleportToStart();
+  }
+
+  /**
+   * Return the number of players sharing the board.
+   * <P>
+   * @return the number of players
+   */
+  public int getPlayerCount()
+  {
+    return players.size();
+  }
+
+  /**
+   * Return the player whose turn it is, counting from 0.
+   * <P>
+   * @return the active player
+   */
+  public int getActivePlayer()
+  {
+    return activePlayer;
+  }
+
+  /**
+   * Pass the turn to the next player. A trap the current player is still standing on goes off
+   * first. Moves made so far can no longer be undone.
+   */
+  public void nextPlayer()
+  {
+    if (trapTimer != null && trapTimer.isRunning()) trapTimer.stop();
+    trapExpired();
+    onTrap = false;
+    currentTrap = null;
+    trapTint = false;
+
+    activePlayer = (activePlayer + 1) % players.size();
+    // the console keeps the score of the player whose turn it is
+    EscapeRoom.score = players.getScore(activePlayer);
+    lastDx = 0;
+    lastDy = 0;
+    scoreMsg = "Player " + (activePlayer + 1) + "'s turn";
+    history.clear();
+    spectators.resync();
+    setScore(EscapeRoom.score);
   }
 
   /**
@@ -571,9 +842,33 @@ public class GameGUI extends JComponent
    */
   public int getSteps()
   {
-    return playerSteps;
+    return players.getSteps(activePlayer);
   }
   
+  /**
+   * @return true if the player has made it off the right side of the grid
+   */
+  public boolean hasWon()
+  {
+    return getCol() >= GRID_W;
+  }
+
+  /**
+   * Turn quiet mode on or off. In quiet mode moves print nothing and the board is not
+   * repainted, so a batch of commands can run at full speed; turning it off paints the board
+   * once if anything changed.
+   * <P>
+   * @param q true for quiet mode
+   */
+  public void setQuiet(boolean q)
+  {
+    quiet = q;
+    if (!q && heldFrame) {
+      heldFrame = false;
+      requestFrame();
+    }
+  }
+
   /**
    * Set the designated number of prizes in the game.  This can be used to customize the gameboard configuration.
    * <P>
@@ -584,6 +879,8 @@ public class GameGUI extends JComponent
   public void setPrizes(int p) 
   {
     totalPrizes = p;
+    // the prepared board has the old counts
+    pool.prepare(GRID_W, GRID_H, totalWalls, totalTraps, totalPrizes);
   }
   
   /**
@@ -596,6 +893,8 @@ public class GameGUI extends JComponent
   public void setTraps(int t) 
   {
     totalTraps = t;
+    // the prepared board has the old counts
+    pool.prepare(GRID_W, GRID_H, totalWalls, totalTraps, totalPrizes);
   }
   
   /**
@@ -608,6 +907,8 @@ public class GameGUI extends JComponent
   public void setWalls(int w) 
   {
     totalWalls = w;
+    // the prepared board has the old counts
+    pool.prepare(GRID_W, GRID_H, totalWalls, totalTraps, totalPrizes);
   }
 
   /**
@@ -640,10 +941,10 @@ public class GameGUI extends JComponent
     }
 
     // move player to start of board
-    x = START_LOC_X;
-    y = START_LOC_Y;
-    playerSteps = 0;
-    repaint();
+    resetPlayers();
+    history.clear();
+    spectators.resync();
+    requestFrame();
     return win;
   }
 
@@ -656,6 +957,13 @@ public class GameGUI extends JComponent
   {
     int win = playerAtEnd();
   
+    // repeating timers and background work would keep the program running after the window
+    logicTimer.stop();
+    frameTimer.stop();
+    if (trapTimer != null) trapTimer.stop();
+    heatmaps.stop();
+    pool.close();
+    spectators.close();
     setVisible(false);
     frame.dispose();
     return win;
@@ -672,38 +980,55 @@ public class GameGUI extends JComponent
   super.paintComponent(g);
   Graphics2D g2 = (Graphics2D) g;
 
-  // draw background
-  if (bgImage != null) {
+  // draw background, walls and prizes, the same way as room thumbnails
+  if (board != null) {
+    BoardPainter.paintRoom(g2, this, bgImage, prizeImage, this);
+  } else if (bgImage != null) {
     g2.drawImage(bgImage, 0, 0, this);
   }
 
   // draw Score in top-left
   g2.setColor(Color.BLUE);
-  g2.drawString("Score: " + guiScore, 10, 12);
+  g2.drawString("Score: " + getScore(), 10, 12);
   g2.setColor(Color.MAGENTA);
   g2.drawString(scoreMsg, 100, 12); // Draw message next to score
-  
-
-  // draw walls
-  g2.setColor(Color.BLACK);
-  if (walls != null) {
-    for (Rectangle r : walls) {
-      g2.fill(r);
-    }
+  if (players.size() > 1) {
+    g2.setColor(Color.BLUE);
+    g2.drawString("Player " + (activePlayer + 1) + " of " + players.size(), 10, 26);
   }
 
-  // draw prizes
-  if (prizes != null && prizeImage != null) {
-    for (Rectangle p : prizes) {
-      if (p.getWidth() > 0) {
-        g2.drawImage(prizeImage, (int)p.getX(), (int)p.getY(), this);
+  // draw all players in one pass
+  if (player != null) {
+    for (int p = 0; p < players.size(); p++) {
+      int px = START_LOC_X + players.getCol(p) * BoardPainter.SPACE_SIZE;
+      int py = START_LOC_Y + players.getRow(p) * BoardPainter.SPACE_SIZE;
+      g2.drawImage(player, px, py, this);
+      if (players.size() > 1) {
+        g2.setColor(p == activePlayer ? Color.RED : Color.DARK_GRAY);
+        g2.drawString(String.valueOf(p + 1), px - 10, py + 10);
       }
     }
   }
 
-  // draw player
-  if (player != null) {
-    g2.drawImage(player, x, y, this);
+  // shade squares by how far they are from the exit: the darker, the further
+  if (showDistances && distances != null) {
+    BoardPainter.paintDistances(g2, distances);
+  }
+
+  // draw the heatmap: the more happened on a square, the stronger its color
+  HeatmapAggregator.Heatmap h = heat;
+  if (showHeat && h != null) {
+    int max = h.maxTotal();
+    for (int s = 0; s < h.getCols() * h.getRows(); s++) {
+      int n = h.total(s);
+      if (n == 0) continue;
+      int sx = START_LOC_X + (s % h.getCols()) * BoardPainter.SPACE_SIZE;
+      int sy = START_LOC_Y + (s / h.getCols()) * BoardPainter.SPACE_SIZE;
+      g2.setColor(new Color(255, 140, 0, 40 + 160 * n / max));
+      g2.fillRect(sx - 15, sy - 15, BoardPainter.SPACE_SIZE, BoardPainter.SPACE_SIZE);
+      g2.setColor(Color.BLACK);
+      g2.drawString(String.valueOf(n), sx - 10, sy + 40);
+    }
   }
 
   // draw red tint when standing on a trap
@@ -713,7 +1038,7 @@ public class GameGUI extends JComponent
   }
 
   // draw win message overlay if game is won (draw last so it overlays walls/player)
-  if (gameWon) {
+  if (hasWon()) {
     // Draw a dark, semi-transparent rectangle over the whole component
     g2.setColor(new Color(0, 0, 0, 220)); // More opaque for a darker overlay
     g2.fillRect(0, 0, getWidth(), getHeight());
@@ -731,19 +1056,18 @@ public class GameGUI extends JComponent
   /*------------------- private methods -------------------*/
 
   /*
-   * Add randomly placed prizes to be picked up.
+   * Add the prizes to be picked up at the squares chosen by the board.
    * Note:  prizes and traps may occupy the same location, with traps hiding prizes
    */
   private void createPrizes()
   {
-    int s = SPACE_SIZE; 
-    Random rand = new Random();
+    int s = BoardPainter.SPACE_SIZE; 
     origPrizes = new Rectangle[totalPrizes];
     prizes = new Rectangle[totalPrizes];
     for (int numPrizes = 0; numPrizes < totalPrizes; numPrizes++)
     {
-    int h = rand.nextInt(GRID_H);
-    int w = rand.nextInt(GRID_W);
+    int h = board.prizeSquare(numPrizes) / GRID_W;
+    int w = board.prizeSquare(numPrizes) % GRID_W;
 
     Rectangle r = new Rectangle((w*s + 15),(h*s + 15), 15, 15);
     origPrizes[numPrizes] = new Rectangle((int)r.getX(), (int)r.getY(), (int)r.getWidth(), (int)r.getHeight());
@@ -752,19 +1076,18 @@ public class GameGUI extends JComponent
   }
 
   /*
-   * Add randomly placed traps to the board. They will be painted white and appear invisible.
+   * Add the traps at the squares chosen by the board. They will be painted white and appear invisible.
    * Note:  prizes and traps may occupy the same location, with traps hiding prizes
    */
   private void createTraps()
   {
-    int s = SPACE_SIZE; 
-    Random rand = new Random();
+    int s = BoardPainter.SPACE_SIZE; 
     origTraps = new Rectangle[totalTraps];
     traps = new Rectangle[totalTraps];
     for (int numTraps = 0; numTraps < totalTraps; numTraps++)
     {
-    int h = rand.nextInt(GRID_H);
-    int w = rand.nextInt(GRID_W);
+    int h = board.trapSquare(numTraps) / GRID_W;
+    int w = board.trapSquare(numTraps) % GRID_W;
 
     Rectangle r = new Rectangle((w*s + 15),(h*s + 15), 15, 15);
     origTraps[numTraps] = new Rectangle((int)r.getX(), (int)r.getY(), (int)r.getWidth(), (int)r.getHeight());
@@ -773,20 +1096,19 @@ public class GameGUI extends JComponent
   }
 
   /*
-   * Add walls to the board in random locations 
+   * Add walls to the board at the locations chosen by the board 
    */
   private void createWalls()
   {
-     int s = SPACE_SIZE; 
+     int s = BoardPainter.SPACE_SIZE; 
 
-     Random rand = new Random();
      for (int numWalls = 0; numWalls < totalWalls; numWalls++)
      {
-      int h = rand.nextInt(GRID_H);
-      int w = rand.nextInt(GRID_W);
+      int h = board.wallRow(numWalls);
+      int w = board.wallCol(numWalls);
 
       Rectangle r;
-       if (rand.nextInt(2) == 0) 
+       if (board.wallVertical(numWalls)) 
        {
          // vertical wall
          r = new Rectangle((w*s + s - 5),h*s, 8,s);
@@ -808,11 +1130,16 @@ public class GameGUI extends JComponent
     String msg = " - Use the arrow keys to navigate through the gate\n"
                + " - Getting a coin increases the score\n"
                 + " - Jump over squares by pressing the spacebar (after moving in a direction with an arrow key, doesn't jump over walls)\n"
+               + " - Dash with shift+arrow; type 2-9 first to set how far the next dash or jump goes\n"
                + " - Running into walls or going off the grid decreases the score\n"
                + "  - Landmines are placed in random unknown places in the grid, and running over them reduces the score\n"
                + "  - Defuse/Spring Traps by typing 'd' to increase the score and avoid the trap within 2 seconds\n"
                 + "  - The screen turns red when a trap is about to be triggered\n"
                 + "  - Go off the grid on the right side to end the game\n"
+               + " - Type 'z' to undo a move and 'y' to redo it\n"
+               + " - With several players, TAB passes the turn to the next player\n"
+               + " - Type 'h' for a hint and 'f' to shade squares by how far they are from the exit\n"
+               + " - Type 'o' to show or hide where players hit walls, set off traps and gave up\n"
                + " - Type 'r' to restart the game\n"
                + "  - Type 'q' to quit the game";
     JOptionPane.showMessageDialog(this, msg, "Info", JOptionPane.INFORMATION_MESSAGE);
@@ -848,10 +1175,10 @@ public class GameGUI extends JComponent
       }
     }
     // reset player
-    x = START_LOC_X;
-    y = START_LOC_Y;
-    playerSteps = 0;
-    repaint();
+    resetPlayers();
+    history.clear();
+    spectators.resync();
+    requestFrame();
   }
 
   /**
@@ -859,11 +1186,7 @@ public class GameGUI extends JComponent
    */
   public void teleportToStart()
   {
-    x = START_LOC_X;
-    y = START_LOC_Y;
-    // update playerLoc if present
-    if (playerLoc == null) playerLoc = new Point(x,y);
-    else playerLoc.setLocation(x,y);
+    players.reset();
 
     // If original prize/trap positions are recorded, ensure any missing ones are restored.
     if (origPrizes != null) {
@@ -893,7 +1216,391 @@ public class GameGUI extends JComponent
     // reset score to 0 when teleporting to start
     EscapeRoom.score = 0;
     setScore(0);
-    repaint();
+    history.clear();
+    spectators.resync();
+    requestFrame();
+  }
+
+  /*
+   * If an armed trap is at the given location, start the two second countdown to disarm it.
+   * Returns true if a trap was armed.
+   */
+  private boolean armTrapAt(int px, int py)
+  {
+    for (int i = 0; i < traps.length; i++)
+    {
+      Rectangle r = traps[i];
+      if (r.getWidth() > 0 && r.contains(px, py))
+      {
+        onTrap = true;
+        currentTrap = r;
+        spectators.publish(SpectatorFeed.TRAP_TRIGGERED, i, 0);
+
+        // set tint and notify in terminal
+        trapTint = true;
+        say("You stepped on a trap! You have 2 seconds to disarm it.");
+        requestFrame();
+
+        // If a previous timer is running, stop it
+        if (trapTimer != null && trapTimer.isRunning()) {
+          trapTimer.stop();
+        }
+
+        // Start a new timer for 2 seconds (2000 ms)
+        trapTimer = new javax.swing.Timer(2000, evt -> trapExpired());
+        trapTimer.setRepeats(false);
+        trapTimer.start();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * The player did not disarm the trap in time: it goes off.
+   */
+  private void trapExpired()
+  {
+    if (onTrap && currentTrap != null && currentTrap.getWidth() > 0) {
+      int delta = scored(ScoreEvent.TRAP_EXPIRED, ScoreRules.STEP, colAt(currentTrap.getX()), rowAt(currentTrap.getY()));
+      say("Trap triggered! " + delta + " points.");
+      EscapeRoom.score += delta;
+      setScore(EscapeRoom.score);
+      // Remove the trap
+      currentTrap.setSize(0, 0);
+      spectators.publish(SpectatorFeed.TRAP_EXPIRED, indexOf(traps, currentTrap), 0);
+      // clear tint and state
+      trapTint = false;
+      requestFrame();
+      onTrap = false;
+      currentTrap = null;
+    }
+  }
+
+  /*
+   * Move up to n squares with the walk PlayerSession uses. With land set (a dash), every
+   * square passed counts as landed on and the dash stops on a trap; otherwise (a jump) only
+   * the last square counts and the move is all or nothing. Returns the change in score
+   * without applying it.
+   */
+  private int travelPlayer(int dc, int dr, int n, boolean land)
+  {
+    // once out, moves are ignored as in PlayerSession
+    if (hasWon()) return 0;
+    int context = land ? ScoreRules.DASH : ScoreRules.JUMP;
+    history.record(snapshot());
+    players.step(activePlayer);
+    int delta = PlayerSession.walk(board, getCol(), getRow(), dc, dr, n, land, new PlayerSession.Walker() {
+      private boolean trapped;
+
+      @Override
+      public boolean occupied(int col, int row) {
+        return players.occupied(col, row, activePlayer);
+      }
+
+      @Override
+      public int land(int col, int row) {
+        placePlayer(col, row);
+        int d = collectPrizeAt(playerX(), playerY(), context);
+        trapped = armTrapAt(playerX(), playerY());
+        return d;
+      }
+
+      @Override
+      public boolean stopped() {
+        return trapped;
+      }
+
+      @Override
+      public int escape(int row) {
+        say("YOU MADE IT OFF THE GRID!");
+        placePlayer(GRID_W, row);
+        return 0;
+      }
+
+      @Override
+      public int bump(ScoreEvent event, int fromCol, int fromRow) {
+        if (event == ScoreEvent.HIT_PLAYER) say("ANOTHER PLAYER IS IN THE WAY");
+        else if (event == ScoreEvent.OFF_GRID) say("OFF THE GRID!");
+        else say("A WALL IS IN THE WAY");
+        return scored(event, context, fromCol, fromRow);
+      }
+    });
+    if (hasWon()) scoreMsg = "You win! Final score: " + (getScore() + delta);
+    requestFrame();
+    return delta;
+  }
+
+  /*
+   * Put the player on a square and tell the spectators.
+   */
+  private void placePlayer(int col, int row)
+  {
+    players.move(activePlayer, col, row);
+    spectators.publish(SpectatorFeed.PLAYER_MOVED, playerX(), playerY());
+  }
+
+  /*
+   * Pixel location of the active player's square.
+   */
+  private int playerX()
+  {
+    return START_LOC_X + getCol() * BoardPainter.SPACE_SIZE;
+  }
+
+  private int playerY()
+  {
+    return START_LOC_Y + getRow() * BoardPainter.SPACE_SIZE;
+  }
+
+  /*
+   * Put every player back on the start square. The active player's score is the console's
+   * (EscapeRoom.score) to reset, so it is kept.
+   */
+  private void resetPlayers()
+  {
+    int score = getScore();
+    players.reset();
+    players.setScore(activePlayer, score);
+  }
+
+  /*
+   * Pick up a prize the player passed over. Returns the score for it, 0 if there was none.
+   */
+  private int collectPrizeAt(int px, int py, int context)
+  {
+    for (int i = 0; i < prizes.length; i++) {
+      Rectangle p = prizes[i];
+      if (p.getWidth() > 0 && p.contains(px, py)) {
+        say("YOU PICKED UP A PRIZE!");
+        p.setSize(0, 0);
+        spectators.publish(SpectatorFeed.PRIZE_REMOVED, i, 0);
+        return scored(ScoreEvent.PRIZE_STEP, context, colAt(px), rowAt(py));
+      }
+    }
+    return 0;
+  }
+
+  /*
+   * Act on one key. Called from the logic timer, at most once per tick.
+   */
+  private void handleKey(int key)
+  {
+    if (key == KeyEvent.VK_RIGHT) {
+      EscapeRoom.score += movePlayer(BoardPainter.SPACE_SIZE, 0);
+      setScore(EscapeRoom.score);
+      lastDx = BoardPainter.SPACE_SIZE;
+      lastDy = 0;
+    } else if (key == KeyEvent.VK_LEFT) {
+      EscapeRoom.score += movePlayer(-BoardPainter.SPACE_SIZE, 0);
+      setScore(EscapeRoom.score);
+      lastDx = -BoardPainter.SPACE_SIZE;
+      lastDy = 0;
+    } else if (key == KeyEvent.VK_DOWN) {
+      EscapeRoom.score += movePlayer(0, BoardPainter.SPACE_SIZE);
+      setScore(EscapeRoom.score);
+      lastDx = 0;
+      lastDy = BoardPainter.SPACE_SIZE;
+    } else if (key == KeyEvent.VK_UP) {
+      EscapeRoom.score += movePlayer(0, -BoardPainter.SPACE_SIZE);
+      setScore(EscapeRoom.score);
+      lastDx = 0;
+      lastDy = -BoardPainter.SPACE_SIZE;
+    } else if (key == KeyEvent.VK_D) { // D key for disarm
+      if (onTrap && currentTrap != null && currentTrap.getWidth() > 0) {
+        history.record(snapshot());
+        // Disarm the trap in time
+        say("TRAP IS SPRUNG!");
+        EscapeRoom.score += scored(ScoreEvent.TRAP_SPRUNG, ScoreRules.STEP, getCol(), getRow());
+        setScore(EscapeRoom.score);
+        currentTrap.setSize(0, 0);
+        spectators.publish(SpectatorFeed.TRAP_SPRUNG, indexOf(traps, currentTrap), 0);
+        requestFrame();
+        onTrap = false;
+        // clear tint and stop timer
+        trapTint = false;
+        if (trapTimer != null && trapTimer.isRunning()) {
+          trapTimer.stop();
+        }
+        currentTrap = null;
+      } else {
+        int result = springTrap(0, 0);
+        EscapeRoom.score += result;
+        setScore(EscapeRoom.score);
+      }
+      GameGUI.this.requestFocusInWindow();
+    } else if (key == KeyEvent.VK_SPACE) { // Spacebar for jump
+      // Only jump if a direction has been set
+      if (lastDx != 0 || lastDy != 0) {
+        EscapeRoom.score += jumpPlayer(Integer.signum(lastDx), Integer.signum(lastDy), moveCount(2));
+        setScore(EscapeRoom.score);
+      }
+    } else if (key >= KeyEvent.VK_2 && key <= KeyEvent.VK_9) {
+      // number keys set how far the next dash or jump goes
+      pendingCount = key - KeyEvent.VK_0;
+    } else if ((key & SHIFT) != 0) { // Shift+arrow to dash
+      int arrow = key & ~SHIFT;
+      int dc = arrow == KeyEvent.VK_RIGHT ? 1 : arrow == KeyEvent.VK_LEFT ? -1 : 0;
+      int dr = arrow == KeyEvent.VK_DOWN ? 1 : arrow == KeyEvent.VK_UP ? -1 : 0;
+      if (dc != 0 || dr != 0) {
+        lastDx = dc * BoardPainter.SPACE_SIZE;
+        lastDy = dr * BoardPainter.SPACE_SIZE;
+        EscapeRoom.score += dashPlayer(dc, dr, moveCount(2));
+        setScore(EscapeRoom.score);
+      }
+    } else if (key == KeyEvent.VK_R) {
+      // allow R to restart: generate a new board and reset state
+      // stop any running trap timer
+      if (trapTimer != null && trapTimer.isRunning()) trapTimer.stop();
+      onTrap = false;
+      currentTrap = null;
+      trapTint = false;
+      // a new board (new walls/prizes/traps), made ahead of time so restarting never waits
+      useBoard(pool.take(GRID_W, GRID_H, totalWalls, totalTraps, totalPrizes));
+      // reset score; the new board put the players back on the start square
+      EscapeRoom.score = 0;
+      setScore(0);
+      // clear any temporary score message (magenta text)
+      scoreMsg = "";
+      spectators.resync();
+      requestFrame();
+    } else if (key == KeyEvent.VK_TAB) {
+      nextPlayer();
+    } else if (key == KeyEvent.VK_Z) {
+      undo();
+    } else if (key == KeyEvent.VK_Y) {
+      redo();
+    } else if (key == KeyEvent.VK_O) {
+      showHeat = !showHeat;
+      if (showHeat) heat = heatmaps.snapshot(board);
+      requestFrame();
+    } else if (key == KeyEvent.VK_H) {
+      scoreMsg = "Hint: " + hint();
+      requestFrame();
+    } else if (key == KeyEvent.VK_F) {
+      showDistances = !showDistances;
+      requestFrame();
+    } else if (key == KeyEvent.VK_Q) {
+        // allow Q to quit the game
+        endGame();
+        // a game quit on purpose is not offered again next time, as with the console quit
+        if (journal != null) {
+          journal.remove(journalId);
+          try {
+            journal.close();
+          } catch (java.io.IOException e) {
+            System.err.println("Could not save the game: " + e.getMessage());
+          }
+        }
+        System.exit(0);
+    }
+  }
+
+  /*
+   * Squares for a dash or jump: the count typed before it, or the default. Using it clears it.
+   */
+  private int moveCount(int def)
+  {
+    int n = pendingCount > 0 ? pendingCount : def;
+    pendingCount = 0;
+    return n;
+  }
+
+  /*
+   * Show the message for a score event, count it on the heatmap and return its score.
+   */
+  private int scored(ScoreEvent event, int context, int col, int row)
+  {
+    scoreMsg = rules.message(event, context);
+    int delta = rules.delta(event, context);
+    // an escaped player is counted on the last square of their row
+    int square = Math.max(0, Math.min(col, GRID_W - 1)) + Math.max(0, Math.min(row, GRID_H - 1)) * GRID_W;
+    if (heatCounter != null) heatCounter.scored(event, square, delta);
+    return delta;
+  }
+
+  private static int colAt(double px)
+  {
+    return ((int)px - START_LOC_X) / BoardPainter.SPACE_SIZE;
+  }
+
+  private static int rowAt(double py)
+  {
+    return ((int)py - START_LOC_Y) / BoardPainter.SPACE_SIZE;
+  }
+
+  /*
+   * Ask for the board to be painted on the next frame.
+   */
+  private void requestFrame()
+  {
+    if (quiet) {
+      heldFrame = true;
+      return;
+    }
+    frameDirty = true;
+  }
+
+  /*
+   * Print a message about the game, unless in quiet mode.
+   */
+  private void say(String msg)
+  {
+    if (!quiet) System.out.println(msg);
+  }
+
+  /*
+   * Describe the whole game as spectator deltas, used to catch up a spectator that
+   * just joined or fell behind.
+   */
+  private long[] spectatorSnapshot()
+  {
+    int n = 5 + (prizes == null ? 0 : prizes.length) + (traps == null ? 0 : traps.length);
+    long[] snap = new long[n];
+    int k = 0;
+    snap[k++] = SpectatorFeed.encode(SpectatorFeed.RESET, 0, 0);
+    snap[k++] = SpectatorFeed.encode(SpectatorFeed.SEED_HIGH, 0, (int)(boardSeed >>> 32));
+    snap[k++] = SpectatorFeed.encode(SpectatorFeed.SEED_LOW, 0, (int)boardSeed);
+    snap[k++] = SpectatorFeed.encode(SpectatorFeed.PLAYER_MOVED, playerX(), playerY());
+    snap[k++] = SpectatorFeed.encode(SpectatorFeed.SCORE_CHANGED, 0, getScore());
+    if (prizes != null) {
+      for (int i = 0; i < prizes.length; i++) {
+        if (prizes[i] != null && prizes[i].getWidth() == 0) {
+          snap[k++] = SpectatorFeed.encode(SpectatorFeed.PRIZE_REMOVED, i, 0);
+        }
+      }
+    }
+    if (traps != null) {
+      for (int i = 0; i < traps.length; i++) {
+        if (traps[i] != null && traps[i].getWidth() == 0) {
+          snap[k++] = SpectatorFeed.encode(SpectatorFeed.TRAP_SPRUNG, i, 0);
+        }
+      }
+    }
+    return java.util.Arrays.copyOf(snap, k);
+  }
+
+  /*
+   * Which rectangles still have a size, i.e. prizes not picked up or traps not sprung.
+   */
+  private static boolean[] aliveFlags(Rectangle[] arr)
+  {
+    boolean[] alive = new boolean[arr == null ? 0 : arr.length];
+    for (int i = 0; i < alive.length; i++) {
+      alive[i] = arr[i] != null && arr[i].getWidth() > 0;
+    }
+    return alive;
+  }
+
+  /*
+   * Position of a rectangle in an array, or -1 if it is not there.
+   */
+  private static int indexOf(Rectangle[] arr, Rectangle r)
+  {
+    for (int i = 0; i < arr.length; i++) {
+      if (arr[i] == r) return i;
+    }
+    return -1;
   }
 
   /**
@@ -903,16 +1610,16 @@ public class GameGUI extends JComponent
   private int playerAtEnd() 
   {
     int score;
-    double px = playerLoc.getX();
-    if (px > (WIDTH - 2*SPACE_SIZE))
+    double px = playerX();
+    if (px > (WIDTH - 2*BoardPainter.SPACE_SIZE))
     {
-      System.out.println("YOU MADE IT!");
-      score = endVal;
+      say("YOU MADE IT!");
+      score = scored(ScoreEvent.END_REACHED, ScoreRules.STEP, getCol(), getRow());
     }
     else
     {
-      System.out.println("OOPS, YOU QUIT TOO SOON!");
-      score = -endVal;
+      say("OOPS, YOU QUIT TOO SOON!");
+      score = scored(ScoreEvent.END_EARLY, ScoreRules.STEP, getCol(), getRow());
     }
     return score;
   }
@@ -0,0 +1,333 @@
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+/**
+ * Counts where things happen on each board: walls hit, trips off the grid, traps sprung or
+ * set off, games given up, and every other ScoreEvent, per square. Sessions report through
+ * the PlayerSession.Listener returned by listener(), or with record().
+ * <P>
+ * Every thread counts into its own array for each board, so any number of sessions can report
+ * at the same time without waiting on each other. The arrays are only added up when a
+ * Heatmap is taken, either on request or every period once start() has been called.
+ * <P>
+ * The counts of a board are kept until forget() is called for it, so callers that move on to
+ * new boards should forget the old ones or the aggregator grows with every board played.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class HeatmapAggregator
+{
+  private static final int EVENTS = ScoreEvent.values().length;
+
+  /**
+   * Counts for one board at one moment. Never changes once taken.
+   */
+  public static class Heatmap
+  {
+    private final long seed;
+    private final int cols;
+    private final int rows;
+    private final long events;
+    // indexed by event.ordinal() * squares + square
+    private final int[] counts;
+
+    Heatmap(long seed, int cols, int rows, long events, int[] counts)
+    {
+      this.seed = seed;
+      this.cols = cols;
+      this.rows = rows;
+      this.events = events;
+      this.counts = counts;
+    }
+
+    public long getSeed() { return seed; }
+    public int getCols() { return cols; }
+    public int getRows() { return rows; }
+
+    /**
+     * @return number of events counted on the whole board
+     */
+    public long getEvents() { return events; }
+
+    /**
+     * @param event kind of event
+     * @param square square number, col + row * cols
+     * @return how often the event happened on the square
+     */
+    public int count(ScoreEvent event, int square)
+    {
+      return counts[event.ordinal() * cols * rows + square];
+    }
+
+    /**
+     * @param square square number, col + row * cols
+     * @return how often anything happened on the square
+     */
+    public int total(int square)
+    {
+      int n = 0;
+      for (int e = 0; e < EVENTS; e++)
+      {
+        n += counts[e * cols * rows + square];
+      }
+      return n;
+    }
+
+    /**
+     * @return the highest total of any square, at least 1
+     */
+    public int maxTotal()
+    {
+      int max = 1;
+      for (int s = 0; s < cols * rows; s++)
+      {
+        max = Math.max(max, total(s));
+      }
+      return max;
+    }
+  }
+
+  /*
+   * The counters of one board: one array per thread that reported, holding a count per event
+   * and square plus the number of events in the last slot. Only the owning thread writes an
+   * array, so plain get and lazySet are enough.
+   */
+  private static class Cells
+  {
+    final long seed;
+    final int cols;
+    final int rows;
+    final int squares;
+    final Queue<AtomicIntegerArray> all = new ConcurrentLinkedQueue<AtomicIntegerArray>();
+    final ThreadLocal<AtomicIntegerArray> local;
+    // events in the last heatmap sent to subscribers
+    long published = 0;
+
+    Cells(Board board)
+    {
+      seed = board.getSeed();
+      cols = board.getCols();
+      rows = board.getRows();
+      squares = cols * rows;
+      local = ThreadLocal.withInitial(() -> {
+        AtomicIntegerArray a = new AtomicIntegerArray(EVENTS * squares + 1);
+        all.add(a);
+        return a;
+      });
+    }
+
+    void add(ScoreEvent event, int square)
+    {
+      AtomicIntegerArray a = local.get();
+      int i = event.ordinal() * squares + square;
+      a.lazySet(i, a.get(i) + 1);
+      int last = a.length() - 1;
+      a.lazySet(last, a.get(last) + 1);
+    }
+
+    long events()
+    {
+      long n = 0;
+      for (AtomicIntegerArray a : all)
+      {
+        n += a.get(a.length() - 1);
+      }
+      return n;
+    }
+
+    Heatmap snapshot()
+    {
+      int[] counts = new int[EVENTS * squares];
+      long events = 0;
+      for (AtomicIntegerArray a : all)
+      {
+        for (int i = 0; i < counts.length; i++)
+        {
+          counts[i] += a.get(i);
+        }
+        events += a.get(counts.length);
+      }
+      return new Heatmap(seed, cols, rows, events, counts);
+    }
+  }
+
+  /*
+   * Everything that decides what a board looks like, as in BoardCache.
+   */
+  private static final class Key
+  {
+    final long seed;
+    final int cols;
+    final int rows;
+    final int walls;
+    final int traps;
+    final int prizes;
+
+    Key(Board b)
+    {
+      seed = b.getSeed();
+      cols = b.getCols();
+      rows = b.getRows();
+      walls = b.getTotalWalls();
+      traps = b.getTotalTraps();
+      prizes = b.getTotalPrizes();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Key)) return false;
+      Key k = (Key)o;
+      return seed == k.seed && cols == k.cols && rows == k.rows
+          && walls == k.walls && traps == k.traps && prizes == k.prizes;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      int h = Long.hashCode(seed);
+      h = 31 * h + cols;
+      h = 31 * h + rows;
+      h = 31 * h + walls;
+      h = 31 * h + traps;
+      return 31 * h + prizes;
+    }
+  }
+
+  private final ConcurrentHashMap<Key, Cells> boards = new ConcurrentHashMap<Key, Cells>();
+  private final List<Consumer<Heatmap>> subscribers = new CopyOnWriteArrayList<Consumer<Heatmap>>();
+  private ScheduledExecutorService timer;
+
+  /**
+   * Return a listener that counts a session's events on a board. Hand it to
+   * PlayerSession.setListener; one listener can be shared by all sessions on the board.
+   * <P>
+   * @param board board the session plays
+   * @return the listener
+   */
+  public PlayerSession.Listener listener(Board board)
+  {
+    final Cells cells = cells(board);
+    return (event, square, delta) -> cells.add(event, square);
+  }
+
+  /**
+   * Count one event.
+   * <P>
+   * @param board board it happened on
+   * @param event what happened
+   * @param square where it happened, col + row * cols
+   */
+  public void record(Board board, ScoreEvent event, int square)
+  {
+    cells(board).add(event, square);
+  }
+
+  /**
+   * Add up the counts of a board so far.
+   * <P>
+   * @param board the board
+   * @return its heatmap, all zero if nothing happened on it yet
+   */
+  public Heatmap snapshot(Board board)
+  {
+    return cells(board).snapshot();
+  }
+
+  /**
+   * Drop the counts of a board. Listeners already handed out for it keep counting, but into
+   * nothing that is ever reported again.
+   * <P>
+   * @param board the board
+   */
+  public void forget(Board board)
+  {
+    boards.remove(new Key(board));
+  }
+
+  /**
+   * Have a heatmap sent to a subscriber every period for each board where something happened
+   * since the last one. Subscribers are called on the aggregator's own thread.
+   * <P>
+   * @param subscriber who gets the heatmaps
+   */
+  public void subscribe(Consumer<Heatmap> subscriber)
+  {
+    subscribers.add(subscriber);
+  }
+
+  public void unsubscribe(Consumer<Heatmap> subscriber)
+  {
+    subscribers.remove(subscriber);
+  }
+
+  /**
+   * Start sending heatmaps to subscribers.
+   * <P>
+   * @param periodMs milliseconds between rounds
+   */
+  public synchronized void start(long periodMs)
+  {
+    if (timer != null) return;
+    timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "heatmaps");
+      t.setDaemon(true);
+      return t;
+    });
+    timer.scheduleAtFixedRate(this::publish, periodMs, periodMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop sending heatmaps. Counting goes on.
+   */
+  public synchronized void stop()
+  {
+    if (timer != null)
+    {
+      timer.shutdown();
+      timer = null;
+    }
+  }
+
+  /*------------------- private methods -------------------*/
+
+  private Cells cells(Board board)
+  {
+    return boards.computeIfAbsent(new Key(board), k -> new Cells(board));
+  }
+
+  /*
+   * One round of the timer: send a heatmap of every board that changed.
+   */
+  private void publish()
+  {
+    if (subscribers.isEmpty()) return;
+    for (Cells cells : boards.values())
+    {
+      long events = cells.events();
+      if (events == cells.published) continue;
+      Heatmap map = cells.snapshot();
+      cells.published = map.getEvents();
+      for (Consumer<Heatmap> s : subscribers)
+      {
+        try
+        {
+          s.accept(map);
+        }
+        catch (RuntimeException e)
+        {
+          System.err.println("Heatmap subscriber failed: " + e);
+        }
+      }
+    }
+  }
+}
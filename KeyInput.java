@@ -0,0 +1,110 @@
+/**
+ * Queues key presses for the game loop so the game moves at most one step per tick no matter
+ * how fast key events arrive. Holding a key repeats it at a fixed rate chosen by the game loop
+ * instead of the operating system's auto-repeat, whose presses are ignored, so the queue never
+ * builds up a backlog. Some systems (X11) send a release before every repeated press, so a
+ * release only takes effect at the next tick; a press of the same key before then is a repeat.
+ * Separate taps of a key are all kept, up to a few waiting at once, but a held key is never
+ * queued behind itself.
+ * <P>
+ * Only used on the Swing event thread, so no locking is needed.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class KeyInput
+{
+  private static final int QUEUE_SIZE = 4;
+  // ticks before a held key starts repeating, and ticks between repeats
+  private static final int REPEAT_DELAY = 4;
+  private static final int REPEAT_EVERY = 2;
+
+  private final int[] queue = new int[QUEUE_SIZE];
+  private int head = 0;
+  private int count = 0;
+  private int heldKey = -1;
+  private int heldTicks = 0;
+  // the held key was released since the last tick
+  private boolean released = false;
+
+  /**
+   * Record a key press.
+   * <P>
+   * @param key key code
+   * @param repeatable true if holding the key should keep repeating it (movement keys)
+   */
+  public void press(int key, boolean repeatable)
+  {
+    // operating system auto-repeat of a key we already treat as held, with or without a
+    // release just before
+    if (key == heldKey)
+    {
+      released = false;
+      return;
+    }
+    if (repeatable)
+    {
+      heldKey = key;
+      heldTicks = 0;
+      released = false;
+      if (count > 0 && queue[(head + count - 1) % QUEUE_SIZE] == key) return;
+    }
+    if (count == QUEUE_SIZE) return;
+    queue[(head + count) % QUEUE_SIZE] = key;
+    count++;
+  }
+
+  /**
+   * Record a key release.
+   * <P>
+   * @param key key code
+   */
+  public void release(int key)
+  {
+    if (key == heldKey)
+    {
+      released = true;
+    }
+  }
+
+  /**
+   * Return the key to act on this tick.
+   * <P>
+   * @return a key code, or -1 if nothing should happen this tick
+   */
+  public int next()
+  {
+    // no press of the key came after its release, so it was really let go
+    if (released)
+    {
+      heldKey = -1;
+      released = false;
+    }
+    if (count > 0)
+    {
+      int key = queue[head];
+      head = (head + 1) % QUEUE_SIZE;
+      count--;
+      return key;
+    }
+    if (heldKey >= 0)
+    {
+      heldTicks++;
+      if (heldTicks >= REPEAT_DELAY && (heldTicks - REPEAT_DELAY) % REPEAT_EVERY == 0)
+      {
+        return heldKey;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Drop all queued and held keys.
+   */
+  public void clear()
+  {
+    count = 0;
+    heldKey = -1;
+    released = false;
+  }
+}
@@ -0,0 +1,344 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the results of finished games. Every result is appended to a local file, one line per
+ * game, and the best results are kept in memory so top scores can be listed quickly.
+ * <P>
+ * The in-memory rankings are concurrent skip lists, so many sessions can record results at the
+ * same time without sharing a lock. Only the file append is serialized.
+ * <P>
+ * File format, one game per line: seed,score,steps,durationMs
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class Leaderboard
+{
+  // how many results are kept per board and overall
+  private static final int MAX_PER_BOARD = 100;
+  private static final int MAX_GLOBAL = 1000;
+  // rewrite the file after this many appends
+  private static final int COMPACT_EVERY = 500;
+
+  /**
+   * A single finished game. Higher scores rank first, ties go to fewer steps, then to the
+   * shorter game, then to whoever finished first.
+   */
+  public static class Entry implements Comparable<Entry>
+  {
+    private final long seed;
+    private final int score;
+    private final int steps;
+    private final long durationMs;
+    private final long order;
+
+    Entry(long seed, int score, int steps, long durationMs, long order)
+    {
+      this.seed = seed;
+      this.score = score;
+      this.steps = steps;
+      this.durationMs = durationMs;
+      this.order = order;
+    }
+
+    public long getSeed() { return seed; }
+    public int getScore() { return score; }
+    public int getSteps() { return steps; }
+    public long getDurationMs() { return durationMs; }
+
+    @Override
+    public int compareTo(Entry o)
+    {
+      if (score != o.score) return Integer.compare(o.score, score);
+      if (steps != o.steps) return Integer.compare(steps, o.steps);
+      if (durationMs != o.durationMs) return Long.compare(durationMs, o.durationMs);
+      return Long.compare(order, o.order);
+    }
+
+    @Override
+    public String toString()
+    {
+      return "score=" + score + " steps=" + steps + " time=" + (durationMs / 1000.0) + "s seed=" + seed;
+    }
+  }
+
+  private final File file;
+  private final Object fileLock = new Object();
+  private final AtomicLong nextOrder = new AtomicLong();
+  private final AtomicInteger appendsSinceCompact = new AtomicInteger();
+
+  private final ConcurrentSkipListSet<Entry> global = new ConcurrentSkipListSet<Entry>();
+  private final AtomicInteger globalSize = new AtomicInteger();
+  private final ConcurrentHashMap<Long, ConcurrentSkipListSet<Entry>> byBoard = new ConcurrentHashMap<Long, ConcurrentSkipListSet<Entry>>();
+  private final ConcurrentHashMap<Long, AtomicInteger> boardSizes = new ConcurrentHashMap<Long, AtomicInteger>();
+
+  /**
+   * Create a leaderboard that is only kept in memory.
+   */
+  public Leaderboard()
+  {
+    file = null;
+  }
+
+  /**
+   * Create a leaderboard backed by the given file. Existing results are loaded; a partly
+   * written last line left by a crash is removed from the file.
+   * <P>
+   * @param file file to append results to
+   */
+  public Leaderboard(File file)
+  {
+    this.file = file;
+    load();
+  }
+
+  /**
+   * Record a finished game.
+   * <P>
+   * @param seed seed of the board that was played
+   * @param score final score
+   * @param steps number of steps taken
+   * @param durationMs how long the game took, in milliseconds
+   */
+  public void record(long seed, int score, int steps, long durationMs)
+  {
+    Entry e = new Entry(seed, score, steps, durationMs, nextOrder.getAndIncrement());
+    insert(e);
+    if (file != null)
+    {
+      append(e);
+      if (appendsSinceCompact.incrementAndGet() >= COMPACT_EVERY)
+      {
+        compact();
+      }
+    }
+  }
+
+  /**
+   * Return the best results over all boards.
+   * <P>
+   * @param k maximum number of results
+   * @return up to k results, best first
+   */
+  public List<Entry> top(int k)
+  {
+    return firstK(global, k);
+  }
+
+  /**
+   * Return the best results for one board.
+   * <P>
+   * @param seed seed of the board
+   * @param k maximum number of results
+   * @return up to k results, best first
+   */
+  public List<Entry> top(long seed, int k)
+  {
+    NavigableSet<Entry> set = byBoard.get(seed);
+    if (set == null) return new ArrayList<Entry>();
+    return firstK(set, k);
+  }
+
+  /**
+   * Rewrite the file so it only holds the results still kept in memory. The new file is
+   * written next to the old one and then moved over it, so a crash leaves one or the other.
+   */
+  public void compact()
+  {
+    if (file == null) return;
+    synchronized (fileLock)
+    {
+      appendsSinceCompact.set(0);
+      // keep everything that can still show up in a ranking
+      ConcurrentSkipListSet<Entry> keep = new ConcurrentSkipListSet<Entry>(global);
+      for (ConcurrentSkipListSet<Entry> set : byBoard.values())
+      {
+        keep.addAll(set);
+      }
+      File tmp = new File(file.getPath() + ".tmp");
+      try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+      {
+        StringBuilder sb = new StringBuilder();
+        for (Entry e : keep)
+        {
+          sb.append(format(e));
+        }
+        writeFully(ch, sb.toString());
+        ch.force(true);
+      }
+      catch (IOException ex)
+      {
+        System.err.println("Could not compact leaderboard: " + ex.getMessage());
+        return;
+      }
+      try
+      {
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException ex)
+      {
+        System.err.println("Could not replace leaderboard file: " + ex.getMessage());
+      }
+    }
+  }
+
+  /*------------------- private methods -------------------*/
+
+  private void insert(Entry e)
+  {
+    global.add(e);
+    trim(global, globalSize, MAX_GLOBAL);
+
+    ConcurrentSkipListSet<Entry> set = byBoard.computeIfAbsent(e.seed, s -> new ConcurrentSkipListSet<Entry>());
+    set.add(e);
+    trim(set, boardSizes.computeIfAbsent(e.seed, s -> new AtomicInteger()), MAX_PER_BOARD);
+  }
+
+  /*
+   * Drop the worst results once a set grows past its limit. The counter avoids calling size(),
+   * which walks the whole skip list.
+   */
+  private static void trim(ConcurrentSkipListSet<Entry> set, AtomicInteger size, int max)
+  {
+    if (size.incrementAndGet() <= max) return;
+    if (set.pollLast() != null)
+    {
+      size.decrementAndGet();
+    }
+  }
+
+  private static List<Entry> firstK(NavigableSet<Entry> set, int k)
+  {
+    List<Entry> result = new ArrayList<Entry>();
+    Iterator<Entry> it = set.iterator();
+    while (it.hasNext() && result.size() < k)
+    {
+      result.add(it.next());
+    }
+    return result;
+  }
+
+  private void append(Entry e)
+  {
+    synchronized (fileLock)
+    {
+      try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.APPEND))
+      {
+        long start = ch.size();
+        try
+        {
+          writeFully(ch, format(e));
+          ch.force(false);
+        }
+        catch (IOException ex)
+        {
+          // a partly written line would run into the next result
+          ch.truncate(start);
+          throw ex;
+        }
+      }
+      catch (IOException ex)
+      {
+        System.err.println("Could not save score to " + file + ": " + ex.getMessage());
+      }
+    }
+  }
+
+  private void load()
+  {
+    if (!file.exists()) return;
+    repairTail();
+    try (BufferedReader in = new BufferedReader(new FileReader(file)))
+    {
+      String line;
+      while ((line = in.readLine()) != null)
+      {
+        Entry e = parse(line);
+        if (e != null) insert(e);
+      }
+    }
+    catch (IOException ex)
+    {
+      System.err.println("Could not read leaderboard " + file + ": " + ex.getMessage());
+    }
+  }
+
+  /*
+   * A crash in the middle of an append can leave a line without its newline. Such a line may
+   * still look whole, e.g. with its duration cut short, so it is dropped: the file is cut back
+   * to the end of the last complete line.
+   */
+  private void repairTail()
+  {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+    {
+      long len = raf.length();
+      long end = len;
+      while (end > 0)
+      {
+        raf.seek(end - 1);
+        if (raf.read() == '\n') break;
+        end--;
+      }
+      if (end < len)
+      {
+        System.err.println("Dropped a partly written result at the end of " + file);
+        raf.setLength(end);
+        raf.getFD().sync();
+      }
+    }
+    catch (IOException ex)
+    {
+      System.err.println("Could not check leaderboard " + file + ": " + ex.getMessage());
+    }
+  }
+
+  private Entry parse(String line)
+  {
+    String[] parts = line.trim().split(",");
+    if (parts.length != 4) return null;
+    try
+    {
+      return new Entry(Long.parseLong(parts[0]), Integer.parseInt(parts[1]),
+          Integer.parseInt(parts[2]), Long.parseLong(parts[3]), nextOrder.getAndIncrement());
+    }
+    catch (NumberFormatException ex)
+    {
+      return null;
+    }
+  }
+
+  private static String format(Entry e)
+  {
+    return e.seed + "," + e.score + "," + e.steps + "," + e.durationMs + "\n";
+  }
+
+  private static void writeFully(FileChannel ch, String s) throws IOException
+  {
+    ByteBuffer buf = ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+    while (buf.hasRemaining())
+    {
+      ch.write(buf);
+    }
+  }
+}
@@ -0,0 +1,391 @@
+/**
+ * One player's game on a shared Board, without any Swing. The board is only read; everything
+ * that changes while playing (location, score, steps, prizes picked up, traps sprung) lives
+ * here, so many sessions can play the same board at the same time.
+ * <P>
+ * Scores come from ScoreRules, the same rules the GameGUI uses. Standing on a trap gives the player one
+ * command to spring it, which replaces the two second timer of the GUI: any other command sets
+ * the trap off first.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class PlayerSession implements BoardView
+{
+  /**
+   * Told about every change to the score as it happens.
+   */
+  public interface Listener
+  {
+    /**
+     * @param event what happened
+     * @param square the square it happened on
+     * @param delta the change in score
+     */
+    void scored(ScoreEvent event, int square, int delta);
+  }
+
+  /*
+   * What a move does to a game on its way, for walk(). GameGUI shares the walk with sessions.
+   */
+  interface Walker
+  {
+    // whether another player stands on a square
+    default boolean occupied(int col, int row) { return false; }
+
+    // land on a square and return the change in score
+    int land(int col, int row);
+
+    // whether the move ends on the square just landed on, as a dash does on a trap
+    boolean stopped();
+
+    // leave the board through the right edge of a row
+    int escape(int row);
+
+    // run into a wall, the edge of the board or another player leaving a square
+    int bump(ScoreEvent event, int fromCol, int fromRow);
+  }
+
+  private final Board board;
+  private final ScoreRules rules;
+  private int col = 0;
+  private int row = 0;
+  private int score = 0;
+  private int steps = 0;
+  private boolean won = false;
+  private int pendingTrap = -1;
+  private final boolean[] prizeAlive;
+  private final boolean[] trapAlive;
+  private Listener listener;
+
+  /**
+   * Start a game at the top-left square of a board, scored with the game's usual rules.
+   * <P>
+   * @param board board to play, shared and never changed
+   */
+  public PlayerSession(Board board)
+  {
+    this(board, ScoreRules.get());
+  }
+
+  /**
+   * Start a game at the top-left square of a board.
+   * <P>
+   * @param board board to play, shared and never changed
+   * @param rules how much everything scores
+   */
+  public PlayerSession(Board board, ScoreRules rules)
+  {
+    this.board = board;
+    this.rules = rules;
+    prizeAlive = new boolean[board.getTotalPrizes()];
+    trapAlive = new boolean[board.getTotalTraps()];
+    reset();
+  }
+
+  /**
+   * Start over on the same board: player back at the start, all prizes and traps restored,
+   * score and steps back to 0.
+   */
+  public void reset()
+  {
+    col = 0;
+    row = 0;
+    score = 0;
+    steps = 0;
+    won = false;
+    pendingTrap = -1;
+    java.util.Arrays.fill(prizeAlive, true);
+    java.util.Arrays.fill(trapAlive, true);
+  }
+
+  /**
+   * Put the session back in a state saved earlier, for example by a SessionHibernator.
+   * <P>
+   * precondition: the flags have one entry per prize and per trap of the board
+   */
+  void restore(int col, int row, int score, int steps, boolean won, int pendingTrap, boolean[] prizeAlive, boolean[] trapAlive)
+  {
+    this.col = col;
+    this.row = row;
+    this.score = score;
+    this.steps = steps;
+    this.won = won;
+    this.pendingTrap = pendingTrap;
+    System.arraycopy(prizeAlive, 0, this.prizeAlive, 0, this.prizeAlive.length);
+    System.arraycopy(trapAlive, 0, this.trapAlive, 0, this.trapAlive.length);
+  }
+
+  /**
+   * Set who is told about score changes.
+   * <P>
+   * @param listener the listener, or null for none
+   */
+  public void setListener(Listener listener)
+  {
+    this.listener = listener;
+  }
+
+  /**
+   * Move the player one square. Bumping into a wall or going off the top, bottom or left of
+   * the board costs a penalty and the player stays put. Leaving through the right edge wins.
+   * Landing on a prize picks it up; landing on a trap arms it. Once the player has won,
+   * moves are ignored.
+   * <P>
+   * postcondition: increases number of steps even if the player did not actually move
+   * <P>
+   * @param dc column change, -1, 0 or 1
+   * @param dr row change, -1, 0 or 1
+   * @return the change in score
+   */
+  public int move(int dc, int dr)
+  {
+    return travel(dc, dr, 1, true, ScoreRules.STEP);
+  }
+
+  /**
+   * Dash up to n squares in a straight line as a single step. Prizes on every square passed
+   * are picked up. The dash stops early on a trap, in front of a wall or at the edge of the
+   * board (both with the usual penalty), or by leaving through the right edge.
+   * <P>
+   * @param dc column change per square, -1, 0 or 1
+   * @param dr row change per square, -1, 0 or 1
+   * @param n most squares to dash
+   * @return the change in score
+   */
+  public int dash(int dc, int dr, int n)
+  {
+    return travel(dc, dr, n, true, ScoreRules.DASH);
+  }
+
+  /**
+   * Jump exactly n squares in a straight line as a single step. Only the landing square
+   * counts for prizes and traps. A wall or the edge of the board on the way means the
+   * usual penalty and the player stays put, except that jumping off the right edge wins.
+   * <P>
+   * @param dc column change per square, -1, 0 or 1
+   * @param dr row change per square, -1, 0 or 1
+   * @param n squares to jump
+   * @return the change in score
+   */
+  public int jump(int dc, int dr, int n)
+  {
+    return travel(dc, dr, n, false, ScoreRules.JUMP);
+  }
+
+  /**
+   * Spring a trap on the player's square.
+   * <P>
+   * @return a positive score if a trap was sprung, otherwise a penalty
+   */
+  public int springTrap()
+  {
+    int square = square();
+    pendingTrap = -1;
+    for (int i = 0; i < trapAlive.length; i++)
+    {
+      if (trapAlive[i] && board.trapSquare(i) == square)
+      {
+        trapAlive[i] = false;
+        return award(ScoreEvent.TRAP_SPRUNG, ScoreRules.STEP, square);
+      }
+    }
+    return award(ScoreEvent.TRAP_MISSING, ScoreRules.STEP, square);
+  }
+
+  /**
+   * Pick up a prize on the player's square.
+   * <P>
+   * @return a positive score if there was a prize, otherwise a penalty
+   */
+  public int pickupPrize()
+  {
+    int delta = expireTrap();
+    int square = square();
+    for (int i = 0; i < prizeAlive.length; i++)
+    {
+      if (prizeAlive[i] && board.prizeSquare(i) == square)
+      {
+        prizeAlive[i] = false;
+        return delta + award(ScoreEvent.PRIZE_PICKUP, ScoreRules.STEP, square);
+      }
+    }
+    return delta + award(ScoreEvent.PRIZE_MISSING, ScoreRules.STEP, square);
+  }
+
+  /**
+   * End the game, checking whether the player made it to the far right.
+   * <P>
+   * @return positive score for reaching the far right, penalty otherwise
+   */
+  public int end()
+  {
+    int delta = expireTrap();
+    // an escaped player is counted on the last square of their row
+    int square = Math.min(col, board.getCols() - 1) + row * board.getCols();
+    if (col >= board.getCols() - 1)
+    {
+      return delta + award(ScoreEvent.END_REACHED, ScoreRules.STEP, square);
+    }
+    return delta + award(ScoreEvent.END_EARLY, ScoreRules.STEP, square);
+  }
+
+  public Board getBoard() { return board; }
+  public int getCol() { return col; }
+  public int getRow() { return row; }
+  public int getScore() { return score; }
+  public int getSteps() { return steps; }
+  public boolean hasWon() { return won; }
+
+  /**
+   * @return the trap the player is standing on and can still spring, or -1
+   */
+  public int getPendingTrap() { return pendingTrap; }
+
+  public boolean prizeAlive(int i) { return prizeAlive[i]; }
+  public boolean trapAlive(int i) { return trapAlive[i]; }
+
+  /*
+   * Move up to n squares from a square using one walk over the board's edge index. With land
+   * set, every square passed counts as landed on and the move stops where the walker says;
+   * otherwise only the last one does and the move is all or nothing. Other players block like
+   * walls, except that a jump only needs a free landing square. Returns the change in score.
+   */
+  static int walk(Board board, int col, int row, int dc, int dr, int n, boolean land, Walker walker)
+  {
+    int run = board.clearRun(col, row, dc, dr, n);
+    boolean playerInWay = false;
+    if (land)
+    {
+      for (int i = 1; i <= run; i++)
+      {
+        if (walker.occupied(col + i * dc, row + i * dr))
+        {
+          run = i - 1;
+          playerInWay = true;
+          break;
+        }
+      }
+    }
+    else if (run == n && walker.occupied(col + n * dc, row + n * dr))
+    {
+      run = n - 1;
+      playerInWay = true;
+    }
+    int delta = 0;
+    if (land || run == n)
+    {
+      for (int i = 1; i <= run; i++)
+      {
+        col += dc;
+        row += dr;
+        if (land || i == run)
+        {
+          delta += walker.land(col, row);
+          if (walker.stopped()) return delta;
+        }
+      }
+    }
+    if (run == n) return delta;
+    // something is in the way of leaving this square
+    int fromCol = land ? col : col + run * dc;
+    int fromRow = land ? row : row + run * dr;
+    int nc = fromCol + dc;
+    int nr = fromRow + dr;
+    if (playerInWay) return delta + walker.bump(ScoreEvent.HIT_PLAYER, fromCol, fromRow);
+    if (nc >= board.getCols() && !board.exitBlocked(fromRow)) return delta + walker.escape(fromRow);
+    if (nc >= board.getCols()) return delta + walker.bump(ScoreEvent.HIT_WALL, fromCol, fromRow);
+    if (nc < 0 || nr < 0 || nr >= board.getRows()) return delta + walker.bump(ScoreEvent.OFF_GRID, fromCol, fromRow);
+    return delta + walker.bump(ScoreEvent.HIT_WALL, fromCol, fromRow);
+  }
+
+  /*------------------- private methods -------------------*/
+
+  /*
+   * Move up to n squares with walk(), as a dash when land is set and a jump otherwise. The
+   * context says which scoring rules apply.
+   */
+  private int travel(int dc, int dr, int n, boolean land, int context)
+  {
+    if (won) return 0;
+    int delta = expireTrap();
+    steps++;
+    return delta + walk(board, col, row, dc, dr, n, land, new Walker()
+    {
+      @Override
+      public int land(int c, int r)
+      {
+        col = c;
+        row = r;
+        return landOn(square(), context);
+      }
+
+      @Override
+      public boolean stopped() { return pendingTrap >= 0; }
+
+      @Override
+      public int escape(int r)
+      {
+        col = board.getCols();
+        row = r;
+        won = true;
+        return 0;
+      }
+
+      @Override
+      public int bump(ScoreEvent event, int fromCol, int fromRow)
+      {
+        return award(event, context, fromCol + fromRow * board.getCols());
+      }
+    });
+  }
+
+  /*
+   * Arm a trap and pick up a prize on the square the player landed on.
+   */
+  private int landOn(int square, int context)
+  {
+    for (int i = 0; i < trapAlive.length; i++)
+    {
+      if (trapAlive[i] && board.trapSquare(i) == square)
+      {
+        pendingTrap = i;
+        break;
+      }
+    }
+    for (int i = 0; i < prizeAlive.length; i++)
+    {
+      if (prizeAlive[i] && board.prizeSquare(i) == square)
+      {
+        prizeAlive[i] = false;
+        return award(ScoreEvent.PRIZE_STEP, context, square);
+      }
+    }
+    return 0;
+  }
+
+  /*
+   * A trap the player did not spring goes off before the next command.
+   */
+  private int expireTrap()
+  {
+    if (pendingTrap < 0) return 0;
+    int trap = pendingTrap;
+    trapAlive[trap] = false;
+    pendingTrap = -1;
+    return award(ScoreEvent.TRAP_EXPIRED, ScoreRules.STEP, board.trapSquare(trap));
+  }
+
+  private int square()
+  {
+    return col + row * board.getCols();
+  }
+
+  private int award(ScoreEvent event, int context, int square)
+  {
+    int delta = rules.delta(event, context);
+    score += delta;
+    if (listener != null) listener.scored(event, square, delta);
+    return delta;
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * State of several players sharing one board: column, row, steps and score of every player,
+ * the one whose turn it is included. The game keeps no other copy; it moves the active player
+ * with move() and step() and reads everybody from here. Locations are in squares; a column
+ * equal to the number of columns means that player has escaped.
+ * <P>
+ * Players take turns, so nothing steps all players at once. The state is still kept as one
+ * array per field, which keeps the loops over all players (occupied squares, drawing) small.
+ * <P>
+ * Players all start on the top-left square. Nobody can move onto a square another player is
+ * standing on; trying to costs a penalty, by default the same as bumping into a wall.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class PlayerTable
+{
+  public static final int MIN_PLAYERS = 1;
+  public static final int MAX_PLAYERS = 64;
+
+  private final int count;
+  final int[] col;
+  final int[] row;
+  final int[] steps;
+  final int[] score;
+
+  /**
+   * @param count number of players, from 1 to 64
+   */
+  public PlayerTable(int count)
+  {
+    if (count < MIN_PLAYERS || count > MAX_PLAYERS)
+    {
+      throw new IllegalArgumentException("players must be between " + MIN_PLAYERS + " and " + MAX_PLAYERS + ": " + count);
+    }
+    this.count = count;
+    col = new int[count];
+    row = new int[count];
+    steps = new int[count];
+    score = new int[count];
+    reset();
+  }
+
+  /**
+   * Put every player back on the start square with no score and no steps.
+   */
+  public void reset()
+  {
+    java.util.Arrays.fill(col, 0);
+    java.util.Arrays.fill(row, 0);
+    java.util.Arrays.fill(steps, 0);
+    java.util.Arrays.fill(score, 0);
+  }
+
+  public int size() { return count; }
+  public int getCol(int p) { return col[p]; }
+  public int getRow(int p) { return row[p]; }
+  public int getSteps(int p) { return steps[p]; }
+  public int getScore(int p) { return score[p]; }
+
+  /**
+   * Store the state of one player.
+   */
+  public void set(int p, int c, int r, int s, int sc)
+  {
+    col[p] = c;
+    row[p] = r;
+    steps[p] = s;
+    score[p] = sc;
+  }
+
+  /**
+   * Put a player on a square.
+   */
+  public void move(int p, int c, int r)
+  {
+    col[p] = c;
+    row[p] = r;
+  }
+
+  /**
+   * Count one step of a player, whether or not they moved.
+   */
+  public void step(int p)
+  {
+    steps[p]++;
+  }
+
+  public void setScore(int p, int sc)
+  {
+    score[p] = sc;
+  }
+
+  /**
+   * Check whether a player other than the given one stands on a square.
+   * <P>
+   * @param c column
+   * @param r row
+   * @param except player to ignore, usually the one moving
+   * @return true if another player is there
+   */
+  public boolean occupied(int c, int r, int except)
+  {
+    for (int p = 0; p < count; p++)
+    {
+      if (p != except && col[p] == c && row[p] == r) return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,31 @@
+/**
+ * Everything in the game that changes the score.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public enum ScoreEvent
+{
+  /** Stepped onto a prize. */
+  PRIZE_STEP,
+  /** Picked up a prize with the pickup command. */
+  PRIZE_PICKUP,
+  /** Tried to pick up a prize where there is none. */
+  PRIZE_MISSING,
+  /** Sprung (disarmed) a trap. */
+  TRAP_SPRUNG,
+  /** Tried to spring a trap where there is none. */
+  TRAP_MISSING,
+  /** Did not disarm a trap in time. */
+  TRAP_EXPIRED,
+  /** Bumped into a wall. */
+  HIT_WALL,
+  /** Bumped into another player. */
+  HIT_PLAYER,
+  /** Tried to leave the board anywhere but the right edge. */
+  OFF_GRID,
+  /** Ended the game at the far right. */
+  END_REACHED,
+  /** Ended the game before reaching the far right. */
+  END_EARLY
+}
@@ -0,0 +1,269 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Properties;
+
+/**
+ * How much every ScoreEvent is worth, and the message shown for it. Rules can depend on how
+ * the player got there: a step, a dash or a jump. They are read from a properties file, one
+ * line per rule:
+ * <PRE>
+ *   hit_wall = -1                      applies to steps, dashes and jumps
+ *   hit_wall.jump = -2                 only for jumps, overrides the line above
+ *   hit_wall.message = %+d from running into a wall
+ * </PRE>
+ * %+d in a message is replaced by the score change. Anything not in the file keeps the
+ * built in value. The rules are turned into one flat table when loaded, so looking up a
+ * score is a single array read.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public final class ScoreRules
+{
+  /** Context for a single step, and for everything that is not a move. */
+  public static final int STEP = 0;
+  /** Context for a dash. */
+  public static final int DASH = 1;
+  /** Context for a jump. */
+  public static final int JUMP = 2;
+
+  private static final String[] CONTEXT_NAMES = { "step", "dash", "jump" };
+  private static final int CONTEXTS = CONTEXT_NAMES.length;
+
+  /** File the rules are read from, in the working directory. */
+  public static final String FILE_NAME = "scoring.properties";
+
+  private static ScoreRules current;
+
+  // indexed by event.ordinal() * CONTEXTS + context
+  private final int[] delta;
+  private final String[] message;
+
+  private ScoreRules(int[] delta, String[] message)
+  {
+    this.delta = delta;
+    this.message = message;
+  }
+
+  /**
+   * Rules read from scoring.properties the first time they are asked for. If the file is
+   * missing the built in rules are used; if it is broken that is reported and the built in
+   * rules are used as well.
+   * <P>
+   * @return the rules for this game
+   */
+  public static synchronized ScoreRules get()
+  {
+    if (current == null)
+    {
+      File file = new File(FILE_NAME);
+      current = defaults();
+      if (file.exists())
+      {
+        try
+        {
+          current = load(file);
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+          System.err.println("Could not read " + FILE_NAME + ", using built in scores: " + e.getMessage());
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * @return the scores the game has always used
+   */
+  public static ScoreRules defaults()
+  {
+    return compile(new Properties());
+  }
+
+  /**
+   * Read rules from a file, on top of the built in rules.
+   * <P>
+   * @param file properties file
+   * @return the rules
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if a line names an unknown event or context, or a
+   *         score is not a whole number
+   */
+  public static ScoreRules load(File file) throws IOException
+  {
+    Properties props = new Properties();
+    try (Reader in = new FileReader(file))
+    {
+      props.load(in);
+    }
+    return compile(props);
+  }
+
+  /**
+   * Build the rule table from properties, on top of the built in rules.
+   * <P>
+   * @param props rules as described above
+   * @return the rules
+   * @throws IllegalArgumentException if a key names an unknown event or context, or a score
+   *         is not a whole number
+   */
+  public static ScoreRules compile(Properties props)
+  {
+    ScoreEvent[] events = ScoreEvent.values();
+    int[] delta = new int[events.length * CONTEXTS];
+    String[] template = new String[events.length * CONTEXTS];
+    for (ScoreEvent e : events)
+    {
+      for (int c = 0; c < CONTEXTS; c++)
+      {
+        delta[e.ordinal() * CONTEXTS + c] = defaultDelta(e);
+        template[e.ordinal() * CONTEXTS + c] = defaultMessage(e);
+      }
+    }
+
+    // event-wide lines first so that context lines win whatever order the file is in
+    for (int pass = 0; pass < 2; pass++)
+    {
+      for (String key : props.stringPropertyNames())
+      {
+        String[] parts = key.trim().toLowerCase().split("\\.");
+        boolean isMessage = parts[parts.length - 1].equals("message");
+        int length = isMessage ? parts.length - 1 : parts.length;
+        if (length < 1 || length > 2)
+        {
+          throw new IllegalArgumentException("bad key: " + key);
+        }
+        if ((length == 2) != (pass == 1)) continue;
+
+        ScoreEvent event = event(parts[0], key);
+        int from = length == 2 ? context(parts[1], key) : 0;
+        int to = length == 2 ? from + 1 : CONTEXTS;
+        String value = props.getProperty(key).trim();
+        for (int c = from; c < to; c++)
+        {
+          int i = event.ordinal() * CONTEXTS + c;
+          if (isMessage)
+          {
+            template[i] = value;
+          }
+          else
+          {
+            try
+            {
+              delta[i] = Integer.parseInt(value);
+            }
+            catch (NumberFormatException e)
+            {
+              throw new IllegalArgumentException("score for " + key + " is not a whole number: " + value);
+            }
+          }
+        }
+      }
+    }
+
+    // fill in the messages once, so showing one costs nothing while playing
+    String[] message = new String[template.length];
+    for (int i = 0; i < template.length; i++)
+    {
+      message[i] = template[i].contains("%") ? String.format(template[i], delta[i]) : template[i];
+    }
+    return new ScoreRules(delta, message);
+  }
+
+  /**
+   * @param event what happened
+   * @param context STEP, DASH or JUMP
+   * @return the change in score, negative for penalties
+   */
+  public int delta(ScoreEvent event, int context)
+  {
+    return delta[event.ordinal() * CONTEXTS + context];
+  }
+
+  /**
+   * @param event what happened, not as part of a dash or jump
+   * @return the change in score, negative for penalties
+   */
+  public int delta(ScoreEvent event)
+  {
+    return delta[event.ordinal() * CONTEXTS];
+  }
+
+  /**
+   * @param event what happened
+   * @param context STEP, DASH or JUMP
+   * @return the message to show the player
+   */
+  public String message(ScoreEvent event, int context)
+  {
+    return message[event.ordinal() * CONTEXTS + context];
+  }
+
+  /**
+   * @param event what happened, not as part of a dash or jump
+   * @return the message to show the player
+   */
+  public String message(ScoreEvent event)
+  {
+    return message[event.ordinal() * CONTEXTS];
+  }
+
+  /*------------------- private methods -------------------*/
+
+  private static ScoreEvent event(String name, String key)
+  {
+    for (ScoreEvent e : ScoreEvent.values())
+    {
+      if (e.name().equalsIgnoreCase(name)) return e;
+    }
+    throw new IllegalArgumentException("unknown event in " + key + ": " + name);
+  }
+
+  private static int context(String name, String key)
+  {
+    for (int c = 0; c < CONTEXTS; c++)
+    {
+      if (CONTEXT_NAMES[c].equals(name)) return c;
+    }
+    throw new IllegalArgumentException("unknown context in " + key + ": " + name);
+  }
+
+  private static int defaultDelta(ScoreEvent e)
+  {
+    switch (e)
+    {
+      case PRIZE_STEP: return 5;
+      case PRIZE_PICKUP: return 1;
+      case PRIZE_MISSING: return -1;
+      case TRAP_SPRUNG: return 5;
+      case TRAP_MISSING: return -5;
+      case TRAP_EXPIRED: return -10;
+      case HIT_WALL: return -1;
+      case HIT_PLAYER: return -1;
+      case OFF_GRID: return -1;
+      case END_REACHED: return 10;
+      default: return -10;
+    }
+  }
+
+  private static String defaultMessage(ScoreEvent e)
+  {
+    switch (e)
+    {
+      case PRIZE_STEP: return "%+d from coin";
+      case PRIZE_PICKUP: return "%+d from picking up a coin";
+      case PRIZE_MISSING: return "%+d from trying to pick up a non-existent prize";
+      case TRAP_SPRUNG: return "%+d from disarming trap";
+      case TRAP_MISSING: return "%+d from trying to spring a non-existent trap";
+      case TRAP_EXPIRED: return "%+d from not disarming a trap";
+      case HIT_WALL: return "%+d from running into a wall";
+      case HIT_PLAYER: return "%+d from bumping into another player";
+      case OFF_GRID: return "%+d from going off the grid";
+      case END_REACHED: return "%+d for making it to the end";
+      default: return "%+d from quitting too soon";
+    }
+  }
+}
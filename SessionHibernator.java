@@ -0,0 +1,508 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Holds a large number of PlayerSessions, most of them idle, in little memory. A session
+ * nobody has used for a while is hibernated: it is written into a few dozen bytes (which
+ * board, where the player is, score, steps, the trap waiting to be sprung and which prizes
+ * and traps are left) and the session itself is dropped. Those bytes are kept in memory, or
+ * in a spill file once a memory limit is reached. The next command for the session brings it
+ * back without the caller noticing; the board comes from the shared BoardCache.
+ * <P>
+ * The place a session took in the spill file is reused once it is woken up or closed. All
+ * sessions on boards of one size take the same number of bytes, so the file only grows to
+ * hold the most sessions spilled at once.
+ * <P>
+ * Sessions are only used through command(), which also makes sure one session is only used
+ * by one thread at a time.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class SessionHibernator
+{
+  private static final byte VERSION = 1;
+  private static final int MAX_SHORT = 0xFFFF;
+
+  /*
+   * One session, live or hibernated in memory or in the spill file. Guarded by itself.
+   */
+  private static class Slot
+  {
+    PlayerSession live;
+    byte[] parked;
+    long spillOffset = -1;
+    int spillLength;
+    long lastUsed;
+    boolean closed;
+  }
+
+  private final long idleMs;
+  private final long maxParkedBytes;
+  private final File spillFile;
+  private final ConcurrentHashMap<Long, Slot> slots = new ConcurrentHashMap<Long, Slot>();
+  private final AtomicLong nextId = new AtomicLong();
+  private final AtomicLong parkedBytes = new AtomicLong();
+  private final AtomicLong spillEnd = new AtomicLong();
+  private final AtomicLong spilledBytes = new AtomicLong();
+  // offsets of unused places in the spill file, by their length
+  private final ConcurrentHashMap<Integer, ConcurrentLinkedQueue<Long>> spillFree =
+      new ConcurrentHashMap<Integer, ConcurrentLinkedQueue<Long>>();
+  private final AtomicLong hibernated = new AtomicLong();
+  private final AtomicLong woken = new AtomicLong();
+  private FileChannel spill;
+  // whether the spill file was opened before; only the first open empties it
+  private boolean spillOpened;
+  private Function<Board, PlayerSession.Listener> listeners;
+  private volatile CheckpointJournal journal;
+  private ScheduledExecutorService sweeper;
+
+  /**
+   * @param idleMs milliseconds without a command before a session is hibernated
+   * @param maxParkedBytes most bytes of hibernated sessions kept in memory
+   * @param spillFile file for hibernated sessions past the memory limit, or null to keep them
+   *        all in memory
+   */
+  public SessionHibernator(long idleMs, long maxParkedBytes, File spillFile)
+  {
+    this.idleMs = idleMs;
+    this.maxParkedBytes = maxParkedBytes;
+    this.spillFile = spillFile;
+  }
+
+  /**
+   * Choose the listener of every session, including sessions brought back from hibernation.
+   * <P>
+   * @param listeners gives the listener for a session's board, or null for none
+   */
+  public void setListeners(Function<Board, PlayerSession.Listener> listeners)
+  {
+    this.listeners = listeners;
+  }
+
+  /**
+   * Save every session to a journal when it is opened and after every command, so games
+   * survive a crash. Closed sessions are removed from it.
+   * <P>
+   * @param journal the journal, or null to stop saving
+   */
+  public void setJournal(CheckpointJournal journal)
+  {
+    this.journal = journal;
+  }
+
+  /**
+   * Bring back the sessions saved in a journal, for example after a crash. They come back
+   * hibernated and wake up on their next command; new sessions get ids after theirs.
+   * <P>
+   * @param journal the journal
+   * @return number of sessions brought back
+   */
+  public int recover(CheckpointJournal journal)
+  {
+    int n = 0;
+    for (long id : journal.ids())
+    {
+      byte[] state = journal.get(id);
+      if (state == null) continue;
+      Slot slot = new Slot();
+      // the journal's bytes are the hibernated form, so nothing needs decoding yet
+      slot.parked = state;
+      slot.lastUsed = System.currentTimeMillis();
+      if (slots.putIfAbsent(id, slot) == null)
+      {
+        parkedBytes.addAndGet(state.length);
+        nextId.accumulateAndGet(id, Math::max);
+        n++;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Start a new game on a board from the shared BoardCache.
+   * <P>
+   * @return the id of the session
+   */
+  public long open(long seed, int cols, int rows, int walls, int traps, int prizes)
+  {
+    Board board = BoardCache.shared().get(seed, cols, rows, walls, traps, prizes).getBoard();
+    Slot slot = new Slot();
+    slot.live = newSession(board);
+    slot.lastUsed = System.currentTimeMillis();
+    long id = nextId.incrementAndGet();
+    slots.put(id, slot);
+    CheckpointJournal j = journal;
+    if (j != null) j.update(id, slot.live);
+    return id;
+  }
+
+  /**
+   * Run a command on a session, waking it up first if it is hibernated.
+   * <P>
+   * @param id session id
+   * @param command what to do with the session, e.g. s -> s.move(1, 0)
+   * @return what the command returned
+   * @throws IllegalArgumentException if there is no such session
+   */
+  public <T> T command(long id, Function<PlayerSession, T> command)
+  {
+    Slot slot = slots.get(id);
+    if (slot == null)
+    {
+      throw new IllegalArgumentException("no session " + id);
+    }
+    synchronized (slot)
+    {
+      // closed while this command was waiting for it
+      if (slot.closed)
+      {
+        throw new IllegalArgumentException("no session " + id);
+      }
+      if (slot.live == null) wake(slot);
+      slot.lastUsed = System.currentTimeMillis();
+      T result = command.apply(slot.live);
+      CheckpointJournal j = journal;
+      if (j != null) j.update(id, slot.live);
+      return result;
+    }
+  }
+
+  /**
+   * End a session and forget it.
+   * <P>
+   * @param id session id
+   */
+  public void close(long id)
+  {
+    Slot slot = slots.remove(id);
+    if (slot == null)
+    {
+      CheckpointJournal j = journal;
+      if (j != null) j.remove(id);
+      return;
+    }
+    synchronized (slot)
+    {
+      // under the slot, so a command still running cannot save the session again afterwards
+      slot.closed = true;
+      CheckpointJournal j = journal;
+      if (j != null) j.remove(id);
+      if (slot.parked != null) parkedBytes.addAndGet(-slot.parked.length);
+      if (slot.spillOffset >= 0) freeSpill(slot);
+      slot.live = null;
+      slot.parked = null;
+    }
+  }
+
+  /**
+   * Hibernate every session that has been idle for long enough.
+   * <P>
+   * @return number of sessions hibernated
+   */
+  public int hibernateIdle()
+  {
+    long cutoff = System.currentTimeMillis() - idleMs;
+    int n = 0;
+    for (Slot slot : slots.values())
+    {
+      synchronized (slot)
+      {
+        if (slot.live != null && slot.lastUsed <= cutoff)
+        {
+          park(slot);
+          n++;
+        }
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Hibernate idle sessions in the background.
+   * <P>
+   * @param periodMs milliseconds between sweeps
+   */
+  public synchronized void start(long periodMs)
+  {
+    if (sweeper != null) return;
+    sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "session-hibernator");
+      t.setDaemon(true);
+      return t;
+    });
+    sweeper.scheduleWithFixedDelay(() -> {
+      try
+      {
+        hibernateIdle();
+      }
+      catch (RuntimeException e)
+      {
+        System.err.println("Could not hibernate sessions: " + e);
+      }
+    }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop hibernating in the background and close the spill file. Sessions in it are kept;
+   * the file is opened again when one of them is woken up or more sessions are spilled.
+   */
+  public synchronized void stop() throws IOException
+  {
+    if (sweeper != null)
+    {
+      sweeper.shutdown();
+      sweeper = null;
+    }
+    if (spill != null)
+    {
+      spill.close();
+      spill = null;
+    }
+  }
+
+  /** @return number of sessions, live or hibernated */
+  public int size() { return slots.size(); }
+
+  /** @return bytes of hibernated sessions held in memory */
+  public long getParkedBytes() { return parkedBytes.get(); }
+
+  /** @return bytes of hibernated sessions held in the spill file */
+  public long getSpilledBytes() { return spilledBytes.get(); }
+
+  /** @return size of the spill file, including places free for reuse */
+  public long getSpillFileBytes() { return spillEnd.get(); }
+
+  /** @return times a session was hibernated */
+  public long getHibernated() { return hibernated.get(); }
+
+  /** @return times a session was woken up */
+  public long getWoken() { return woken.get(); }
+
+  /**
+   * Write a session into its compact form.
+   * <P>
+   * @param s the session, on a board with at most 65535 columns, rows, traps and prizes
+   * @return the bytes
+   */
+  public static byte[] encode(PlayerSession s)
+  {
+    Board b = s.getBoard();
+    int traps = b.getTotalTraps();
+    int prizes = b.getTotalPrizes();
+    if (b.getCols() >= MAX_SHORT || b.getRows() > MAX_SHORT || traps >= MAX_SHORT || prizes > MAX_SHORT)
+    {
+      throw new IllegalArgumentException("board too big to hibernate");
+    }
+    ByteBuffer buf = ByteBuffer.allocate(36 + (prizes + 7) / 8 + (traps + 7) / 8);
+    buf.put(VERSION);
+    buf.putLong(b.getSeed());
+    buf.putChar((char)b.getCols());
+    buf.putChar((char)b.getRows());
+    buf.putInt(b.getTotalWalls());
+    buf.putChar((char)traps);
+    buf.putChar((char)prizes);
+    buf.putChar((char)s.getCol());
+    buf.putChar((char)s.getRow());
+    buf.putInt(s.getScore());
+    buf.putInt(s.getSteps());
+    buf.put((byte)(s.hasWon() ? 1 : 0));
+    buf.putChar((char)(s.getPendingTrap() + 1));
+    putBits(buf, prizes, s::prizeAlive);
+    putBits(buf, traps, s::trapAlive);
+    return buf.array();
+  }
+
+  /**
+   * Bring back a session from its compact form, on a board from the shared BoardCache.
+   * <P>
+   * @param buf the bytes written by encode
+   * @return the session; it has no listener
+   * @throws IllegalArgumentException if the bytes are not a hibernated session
+   */
+  public static PlayerSession decode(ByteBuffer buf)
+  {
+    if (buf.get() != VERSION)
+    {
+      throw new IllegalArgumentException("not a hibernated session");
+    }
+    long seed = buf.getLong();
+    int cols = buf.getChar();
+    int rows = buf.getChar();
+    int walls = buf.getInt();
+    int traps = buf.getChar();
+    int prizes = buf.getChar();
+    Board board = BoardCache.shared().get(seed, cols, rows, walls, traps, prizes).getBoard();
+    int col = buf.getChar();
+    int row = buf.getChar();
+    int score = buf.getInt();
+    int steps = buf.getInt();
+    boolean won = buf.get() != 0;
+    int pendingTrap = buf.getChar() - 1;
+    boolean[] prizeAlive = getBits(buf, prizes);
+    boolean[] trapAlive = getBits(buf, traps);
+    PlayerSession s = new PlayerSession(board);
+    s.restore(col, row, score, steps, won, pendingTrap, prizeAlive, trapAlive);
+    return s;
+  }
+
+  /*------------------- private methods -------------------*/
+
+  private PlayerSession newSession(Board board)
+  {
+    PlayerSession s = new PlayerSession(board);
+    if (listeners != null) s.setListener(listeners.apply(board));
+    return s;
+  }
+
+  /*
+   * Hibernate a live session: keep its bytes in memory, or in the spill file once the memory
+   * limit is reached. Called holding the slot.
+   */
+  private void park(Slot slot)
+  {
+    byte[] bytes = encode(slot.live);
+    if (spillFile != null && parkedBytes.get() + bytes.length > maxParkedBytes)
+    {
+      Long free = spillFree(bytes.length).poll();
+      long offset = free != null ? free : spillEnd.getAndAdd(bytes.length);
+      try
+      {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining())
+        {
+          spill().write(buf, offset + buf.position());
+        }
+      }
+      catch (IOException e)
+      {
+        // the session stays live
+        System.err.println("Could not spill a session: " + e.getMessage());
+        spillFree(bytes.length).add(offset);
+        return;
+      }
+      slot.spillOffset = offset;
+      slot.spillLength = bytes.length;
+      spilledBytes.addAndGet(bytes.length);
+    }
+    else
+    {
+      slot.parked = bytes;
+      parkedBytes.addAndGet(bytes.length);
+    }
+    slot.live = null;
+    hibernated.incrementAndGet();
+  }
+
+  /*
+   * Bring a hibernated session back to life. Called holding the slot.
+   */
+  private void wake(Slot slot)
+  {
+    ByteBuffer buf;
+    if (slot.parked != null)
+    {
+      buf = ByteBuffer.wrap(slot.parked);
+      parkedBytes.addAndGet(-slot.parked.length);
+      slot.parked = null;
+    }
+    else
+    {
+      buf = ByteBuffer.allocate(slot.spillLength);
+      try
+      {
+        while (buf.hasRemaining())
+        {
+          if (spill().read(buf, slot.spillOffset + buf.position()) < 0)
+          {
+            throw new IOException("spill file is too short");
+          }
+        }
+      }
+      catch (IOException e)
+      {
+        throw new UncheckedIOException("Could not read a hibernated session", e);
+      }
+      buf.flip();
+      freeSpill(slot);
+    }
+    PlayerSession s = decode(buf);
+    if (listeners != null) s.setListener(listeners.apply(s.getBoard()));
+    slot.live = s;
+    woken.incrementAndGet();
+  }
+
+  private ConcurrentLinkedQueue<Long> spillFree(int length)
+  {
+    return spillFree.computeIfAbsent(length, k -> new ConcurrentLinkedQueue<Long>());
+  }
+
+  /*
+   * Let the place of a spilled session be reused. Called holding the slot.
+   */
+  private void freeSpill(Slot slot)
+  {
+    spillFree(slot.spillLength).add(slot.spillOffset);
+    spilledBytes.addAndGet(-slot.spillLength);
+    slot.spillOffset = -1;
+  }
+
+  private synchronized FileChannel spill() throws IOException
+  {
+    if (spill == null && spillOpened)
+    {
+      // after stop() the file still holds spilled sessions
+      spill = FileChannel.open(spillFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    else if (spill == null)
+    {
+      spill = FileChannel.open(spillFile.toPath(), StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      spillOpened = true;
+    }
+    return spill;
+  }
+
+  private interface Flags
+  {
+    boolean get(int i);
+  }
+
+  private static void putBits(ByteBuffer buf, int n, Flags flags)
+  {
+    for (int i = 0; i < n; i += 8)
+    {
+      int b = 0;
+      for (int j = 0; j < 8 && i + j < n; j++)
+      {
+        if (flags.get(i + j)) b |= 1 << j;
+      }
+      buf.put((byte)b);
+    }
+  }
+
+  private static boolean[] getBits(ByteBuffer buf, int n)
+  {
+    boolean[] flags = new boolean[n];
+    for (int i = 0; i < n; i += 8)
+    {
+      int b = buf.get();
+      for (int j = 0; j < 8 && i + j < n; j++)
+      {
+        flags[i + j] = (b & (1 << j)) != 0;
+      }
+    }
+    return flags;
+  }
+}
@@ -0,0 +1,292 @@
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Streams the changes in a game to any number of spectators. Instead of the whole board, each
+ * change is sent as a small delta packed into a long: the kind in the top 8 bits, an unsigned
+ * 24 bit value (a) and a signed 32 bit value (b).
+ * <P>
+ * The game publishes deltas into a pending batch. A background thread hands each batch to all
+ * subscribers at once. Every subscriber has a fixed size buffer; a subscriber that falls too far
+ * behind drops its backlog and is sent a fresh snapshot of the game instead, so memory stays
+ * bounded and a slow spectator never holds up the game.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class SpectatorFeed
+{
+  /** The board changed completely, discard previous state. */
+  public static final int RESET = 0;
+  /** High 32 bits of the board seed in b. */
+  public static final int SEED_HIGH = 1;
+  /** Low 32 bits of the board seed in b. */
+  public static final int SEED_LOW = 2;
+  /** Player moved to pixel location (a, b). */
+  public static final int PLAYER_MOVED = 3;
+  /** Prize number a was picked up. */
+  public static final int PRIZE_REMOVED = 4;
+  /** Player stepped on trap number a and may disarm it. */
+  public static final int TRAP_TRIGGERED = 5;
+  /** Trap number a was sprung (disarmed). */
+  public static final int TRAP_SPRUNG = 6;
+  /** Trap number a went off because it was not disarmed in time. */
+  public static final int TRAP_EXPIRED = 7;
+  /** Score is now b. */
+  public static final int SCORE_CHANGED = 8;
+
+  private static final int BATCH_SIZE = 256;
+  private static final int DEFAULT_BUFFER = 1024;
+  private static final long DISPATCH_MS = 20;
+
+  /**
+   * A spectator's view of the feed. Deltas are read with poll.
+   */
+  public static class Subscriber
+  {
+    private final SpectatorFeed feed;
+    private final long[] ring;
+    private long head = 0; // next slot to read
+    private long tail = 0; // next slot to write
+    private boolean needsSnapshot = true;
+
+    Subscriber(SpectatorFeed feed, int capacity)
+    {
+      this.feed = feed;
+      ring = new long[capacity];
+    }
+
+    /**
+     * Copy waiting deltas into out. After the subscriber fell behind, the first deltas
+     * returned describe the whole game, starting with a RESET.
+     * <P>
+     * @param out array to fill
+     * @return the number of deltas copied
+     */
+    public synchronized int poll(long[] out)
+    {
+      if (needsSnapshot)
+      {
+        needsSnapshot = false;
+        head = tail;
+        long[] snap = feed.snapshot.get();
+        for (long d : snap)
+        {
+          offer(d);
+        }
+      }
+      int n = 0;
+      while (n < out.length && head < tail)
+      {
+        out[n++] = ring[(int)(head++ % ring.length)];
+      }
+      return n;
+    }
+
+    /*
+     * Add a whole batch, or nothing if it does not fit.
+     */
+    synchronized void deliver(long[] batch, int count)
+    {
+      if (needsSnapshot) return;
+      if (tail - head + count > ring.length)
+      {
+        // too far behind: drop the backlog and resend the whole game on the next poll
+        needsSnapshot = true;
+        head = tail;
+        return;
+      }
+      for (int i = 0; i < count; i++)
+      {
+        ring[(int)(tail++ % ring.length)] = batch[i];
+      }
+    }
+
+    synchronized void resync()
+    {
+      needsSnapshot = true;
+      head = tail;
+    }
+
+    private void offer(long d)
+    {
+      if (tail - head == ring.length) head++;
+      ring[(int)(tail++ % ring.length)] = d;
+    }
+  }
+
+  private final Supplier<long[]> snapshot;
+  private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+  private long[] pending = new long[BATCH_SIZE];
+  private long[] sending = new long[BATCH_SIZE];
+  private int pendingCount = 0;
+  private boolean overflow = false;
+  private Thread dispatcher;
+  private boolean closed = false;
+
+  /**
+   * Create a feed.
+   * <P>
+   * @param snapshot returns deltas describing the whole current game, used to catch up spectators
+   */
+  public SpectatorFeed(Supplier<long[]> snapshot)
+  {
+    this.snapshot = snapshot;
+  }
+
+  /**
+   * Add a spectator.
+   * <P>
+   * @return the new subscriber
+   */
+  public Subscriber subscribe()
+  {
+    return subscribe(DEFAULT_BUFFER);
+  }
+
+  /**
+   * Add a spectator with a buffer of the given number of deltas.
+   * <P>
+   * @param capacity buffer size, must be larger than the snapshot of a game
+   * @return the new subscriber
+   */
+  public Subscriber subscribe(int capacity)
+  {
+    Subscriber s = new Subscriber(this, capacity);
+    subscribers.add(s);
+    startDispatcher();
+    return s;
+  }
+
+  /**
+   * Remove a spectator.
+   * <P>
+   * @param s subscriber to remove
+   */
+  public void unsubscribe(Subscriber s)
+  {
+    subscribers.remove(s);
+  }
+
+  /**
+   * Publish one change. Cheap enough to call from the game thread; does nothing when nobody
+   * is watching.
+   * <P>
+   * @param kind kind of change
+   * @param a first value (0 to 2^24-1)
+   * @param b second value
+   */
+  public void publish(int kind, int a, int b)
+  {
+    if (subscribers.isEmpty()) return;
+    synchronized (this)
+    {
+      if (pendingCount == pending.length)
+      {
+        // the dispatcher is behind; spectators will be sent a snapshot instead
+        overflow = true;
+        pendingCount = 0;
+      }
+      pending[pendingCount++] = encode(kind, a, b);
+    }
+  }
+
+  /**
+   * Tell all spectators the board changed completely, for example after a restart.
+   */
+  public void resync()
+  {
+    for (Subscriber s : subscribers)
+    {
+      s.resync();
+    }
+  }
+
+  /**
+   * Stop sending deltas and drop every spectator. Subscribers can still poll for a snapshot
+   * of the game.
+   */
+  public synchronized void close()
+  {
+    closed = true;
+    subscribers.clear();
+    if (dispatcher != null)
+    {
+      dispatcher.interrupt();
+      dispatcher = null;
+    }
+  }
+
+  /**
+   * Pack a delta into a long.
+   */
+  public static long encode(int kind, int a, int b)
+  {
+    return ((long)kind << 56) | ((long)(a & 0xFFFFFF) << 32) | (b & 0xFFFFFFFFL);
+  }
+
+  public static int kind(long delta)
+  {
+    return (int)(delta >>> 56);
+  }
+
+  public static int a(long delta)
+  {
+    return (int)(delta >>> 32) & 0xFFFFFF;
+  }
+
+  public static int b(long delta)
+  {
+    return (int)delta;
+  }
+
+  /*------------------- private methods -------------------*/
+
+  private synchronized void startDispatcher()
+  {
+    if (dispatcher != null || closed) return;
+    dispatcher = new Thread(this::dispatchLoop, "spectator-feed");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  /*
+   * Swap the pending batch out and hand it to every subscriber. Batching means each
+   * subscriber is touched once per interval rather than once per delta.
+   */
+  private void dispatchLoop()
+  {
+    while (true)
+    {
+      try
+      {
+        Thread.sleep(DISPATCH_MS);
+      }
+      catch (InterruptedException e)
+      {
+        return;
+      }
+      int count;
+      boolean lost;
+      synchronized (this)
+      {
+        long[] t = sending;
+        sending = pending;
+        pending = t;
+        count = pendingCount;
+        lost = overflow;
+        pendingCount = 0;
+        overflow = false;
+      }
+      if (lost)
+      {
+        resync();
+      }
+      if (count == 0) continue;
+      for (Subscriber s : subscribers)
+      {
+        s.deliver(sending, count);
+      }
+    }
+  }
+}
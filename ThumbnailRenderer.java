@@ -0,0 +1,335 @@
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import javax.imageio.ImageIO;
+
+/**
+ * Draws small pictures of rooms off screen, for example to let players browse many rooms
+ * before picking one. A thumbnail shows the grid, the walls and the prizes as the game draws
+ * them (see BoardPainter) and optionally the shortest way out from the start square.
+ * <P>
+ * Many rooms are drawn at once on all cores. Drawn thumbnails are kept until the cache holds
+ * more than a given number of bytes of pictures; then the least recently used are dropped.
+ * Thumbnails can be written out as PNG files.
+ * <P>
+ * Thumbnails come from the cache shared by all callers, so they must not be drawn on.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class ThumbnailRenderer
+{
+  // bytes per pixel of the pictures
+  private static final int PIXEL_BYTES = 4;
+
+  /*
+   * A room and how it is drawn. The room is decided by its seed, size and counts.
+   */
+  private static final class Key
+  {
+    final long seed;
+    final int cols;
+    final int rows;
+    final int walls;
+    final int traps;
+    final int prizes;
+    final boolean path;
+
+    Key(Board b, boolean path)
+    {
+      seed = b.getSeed();
+      cols = b.getCols();
+      rows = b.getRows();
+      walls = b.getTotalWalls();
+      traps = b.getTotalTraps();
+      prizes = b.getTotalPrizes();
+      this.path = path;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Key)) return false;
+      Key k = (Key)o;
+      return seed == k.seed && cols == k.cols && rows == k.rows && walls == k.walls
+          && traps == k.traps && prizes == k.prizes && path == k.path;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      int h = Long.hashCode(seed);
+      h = 31 * h + cols;
+      h = 31 * h + rows;
+      h = 31 * h + walls;
+      h = 31 * h + traps;
+      h = 31 * h + prizes;
+      return 31 * h + (path ? 1 : 0);
+    }
+  }
+
+  private final int width;
+  private final long maxBytes;
+  private final Image prizeImage;
+
+  // least recently used first; guarded by itself
+  private final LinkedHashMap<Key, BufferedImage> cache = new LinkedHashMap<Key, BufferedImage>(16, 0.75f, true);
+  private long bytes = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param width width of every thumbnail in pixels; the height follows from the room
+   * @param maxBytes most bytes of pictures kept in the cache
+   */
+  public ThumbnailRenderer(int width, long maxBytes)
+  {
+    if (width < 1)
+    {
+      throw new IllegalArgumentException("width must be at least 1: " + width);
+    }
+    this.width = width;
+    this.maxBytes = maxBytes;
+    Image coin = null;
+    try
+    {
+      coin = ImageIO.read(new File("coin.png"));
+    }
+    catch (IOException e)
+    {
+      System.err.println("Could not open file coin.png");
+    }
+    prizeImage = coin;
+  }
+
+  /**
+   * Return the thumbnail of a room with all its prizes, drawing it if it is not cached.
+   * <P>
+   * @param board the room
+   * @param path true to draw the shortest way out from the start square
+   * @return the thumbnail; shared, so do not draw on it
+   */
+  public BufferedImage render(Board board, boolean path)
+  {
+    Key key = new Key(board, path);
+    synchronized (cache)
+    {
+      BufferedImage image = cache.get(key);
+      if (image != null)
+      {
+        hits.incrementAndGet();
+        return image;
+      }
+    }
+    misses.incrementAndGet();
+    BufferedImage image = draw(board, path);
+    synchronized (cache)
+    {
+      // another thread may have drawn the same room meanwhile; keep one of them
+      BufferedImage old = cache.put(key, image);
+      if (old != null) bytes -= size(old);
+      bytes += size(image);
+      evict();
+    }
+    return image;
+  }
+
+  /**
+   * Return the thumbnails of many rooms, drawing the ones not cached on all cores.
+   * <P>
+   * @param boards the rooms
+   * @param path true to draw the shortest ways out
+   * @return the thumbnails, in the order of the rooms
+   */
+  public List<BufferedImage> renderAll(List<Board> boards, boolean path)
+  {
+    return boards.parallelStream().map(b -> render(b, path)).collect(Collectors.toList());
+  }
+
+  /**
+   * Write the thumbnails of many rooms as PNG files, drawing and writing on all cores. A file
+   * is named after everything that decides its picture, for example
+   * room-42-8x5-w20-t5-p3-path.png, so rooms with the same seed do not overwrite each other.
+   * <P>
+   * @param boards the rooms
+   * @param path true to draw the shortest ways out
+   * @param dir directory for the files; created if needed
+   * @return the files written, in the order of the rooms
+   * @throws IOException if a file cannot be written
+   */
+  public List<File> exportAll(List<Board> boards, boolean path, File dir) throws IOException
+  {
+    if (!dir.isDirectory() && !dir.mkdirs())
+    {
+      throw new IOException("Could not create directory " + dir);
+    }
+    try
+    {
+      return boards.parallelStream().map(b -> {
+        File f = new File(dir, fileName(new Key(b, path)));
+        try
+        {
+          writePng(render(b, path), f);
+        }
+        catch (IOException e)
+        {
+          throw new UncheckedIOException(e);
+        }
+        return f;
+      }).collect(Collectors.toList());
+    }
+    catch (UncheckedIOException e)
+    {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Write a picture as a PNG file.
+   * <P>
+   * @param image the picture
+   * @param file the file
+   * @throws IOException if the file cannot be written
+   */
+  public static void writePng(BufferedImage image, File file) throws IOException
+  {
+    if (!ImageIO.write(image, "png", file))
+    {
+      throw new IOException("No PNG writer for " + file);
+    }
+  }
+
+  /**
+   * Drop every thumbnail.
+   */
+  public void clear()
+  {
+    synchronized (cache)
+    {
+      cache.clear();
+      bytes = 0;
+    }
+  }
+
+  /**
+   * @return thumbnails cached
+   */
+  public int size()
+  {
+    synchronized (cache)
+    {
+      return cache.size();
+    }
+  }
+
+  /**
+   * @return bytes of pictures cached
+   */
+  public long getCachedBytes()
+  {
+    synchronized (cache)
+    {
+      return bytes;
+    }
+  }
+
+  /** @return thumbnails answered from the cache */
+  public long getHits() { return hits.get(); }
+
+  /** @return thumbnails that had to be drawn */
+  public long getMisses() { return misses.get(); }
+
+  /*------------------- private methods -------------------*/
+
+  /*
+   * Draw a room at full size, scaled down to the thumbnail width.
+   */
+  private BufferedImage draw(Board board, boolean path)
+  {
+    double scale = (double)width / (board.getCols() * BoardPainter.SPACE_SIZE);
+    int height = Math.max(1, (int)Math.round(board.getRows() * BoardPainter.SPACE_SIZE * scale));
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = image.createGraphics();
+    try
+    {
+      g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.scale(scale, scale);
+      // a new game has every prize
+      BoardPainter.paintRoom(g, new PlayerSession(board), null, prizeImage, null);
+      if (path)
+      {
+        DistanceField distances = BoardCache.shared().get(board.getSeed(), board.getCols(), board.getRows(),
+            board.getTotalWalls(), board.getTotalTraps(), board.getTotalPrizes()).getDistances();
+        BoardPainter.paintPath(g, distances, 0, 0);
+      }
+    }
+    finally
+    {
+      g.dispose();
+    }
+    return image;
+  }
+
+  /*
+   * Drop least recently used thumbnails until the limit is kept, but always keep the newest.
+   * Called holding the cache.
+   */
+  private void evict()
+  {
+    Iterator<Map.Entry<Key, BufferedImage>> it = cache.entrySet().iterator();
+    while (bytes > maxBytes && cache.size() > 1 && it.hasNext())
+    {
+      bytes -= size(it.next().getValue());
+      it.remove();
+    }
+  }
+
+  private static String fileName(Key k)
+  {
+    return "room-" + k.seed + "-" + k.cols + "x" + k.rows + "-w" + k.walls + "-t" + k.traps
+        + "-p" + k.prizes + (k.path ? "-path" : "") + ".png";
+  }
+
+  private static long size(BufferedImage image)
+  {
+    return (long)image.getWidth() * image.getHeight() * PIXEL_BYTES;
+  }
+
+  /**
+   * Write thumbnails of random rooms of the game's size as PNG files and report how long it
+   * took.
+   * <P>
+   * Usage: java ThumbnailRenderer [rooms] [directory] [width]
+   */
+  public static void main(String[] args) throws IOException
+  {
+    int rooms = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    File dir = new File(args.length > 1 ? args[1] : "thumbnails");
+    int width = args.length > 2 ? Integer.parseInt(args[2]) : 160;
+    Random rand = new Random();
+    List<Board> boards = new ArrayList<Board>();
+    for (int i = 0; i < rooms; i++)
+    {
+      boards.add(Board.generate(rand.nextLong(), 8, 5, 20, 5, 3));
+    }
+    ThumbnailRenderer renderer = new ThumbnailRenderer(width, 64L * 1024 * 1024);
+    long start = System.nanoTime();
+    renderer.exportAll(boards, true, dir);
+    System.out.printf("%d thumbnails in %s on %d cores: %.0f ms%n", rooms, dir,
+        Runtime.getRuntime().availableProcessors(), (System.nanoTime() - start) / 1e6);
+  }
+}
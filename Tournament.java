@@ -0,0 +1,216 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets many players attempt the same room at the same time. One board is generated and shared
+ * read-only; every player gets their own PlayerSession on it and the games run on a thread
+ * pool. Standings are updated as each game finishes and can be read while the tournament is
+ * still running.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class Tournament
+{
+  /**
+   * How a player plays: issue commands on the session until done.
+   */
+  public interface Strategy
+  {
+    void play(PlayerSession session);
+  }
+
+  /**
+   * The outcome of one player's game. Higher scores rank first, ties go to fewer steps, then to
+   * whoever finished first.
+   */
+  public static class Result implements Comparable<Result>
+  {
+    private final String name;
+    private final int score;
+    private final int steps;
+    private final boolean won;
+    private final long order;
+
+    Result(String name, int score, int steps, boolean won, long order)
+    {
+      this.name = name;
+      this.score = score;
+      this.steps = steps;
+      this.won = won;
+      this.order = order;
+    }
+
+    public String getName() { return name; }
+    public int getScore() { return score; }
+    public int getSteps() { return steps; }
+    public boolean hasWon() { return won; }
+
+    @Override
+    public int compareTo(Result o)
+    {
+      if (score != o.score) return Integer.compare(o.score, score);
+      if (steps != o.steps) return Integer.compare(steps, o.steps);
+      return Long.compare(order, o.order);
+    }
+
+    @Override
+    public String toString()
+    {
+      return name + ": score=" + score + " steps=" + steps + (won ? " (escaped)" : "");
+    }
+  }
+
+  private final Board board;
+  private final ConcurrentSkipListSet<Result> standings = new ConcurrentSkipListSet<Result>();
+  private final AtomicLong finishOrder = new AtomicLong();
+  private final AtomicInteger finished = new AtomicInteger();
+  private PlayerSession.Listener heatCounter;
+
+  /**
+   * @param board the room every player attempts
+   */
+  public Tournament(Board board)
+  {
+    this.board = board;
+  }
+
+  /**
+   * Count every game's events in a heatmap aggregator. Call before run().
+   * <P>
+   * @param heatmaps aggregator to count into
+   */
+  public void setHeatmaps(HeatmapAggregator heatmaps)
+  {
+    heatCounter = heatmaps.listener(board);
+  }
+
+  /**
+   * Play all games and wait for them to finish.
+   * <P>
+   * precondition: names and strategies have the same length
+   * <P>
+   * @param names player names
+   * @param strategies how each player plays
+   * @param threads number of games played at the same time
+   */
+  public void run(String[] names, Strategy[] strategies, int threads) throws InterruptedException
+  {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    for (int i = 0; i < names.length; i++)
+    {
+      final String name = names[i];
+      final Strategy strategy = strategies[i];
+      pool.execute(() -> {
+        PlayerSession session = new PlayerSession(board);
+        session.setListener(heatCounter);
+        try
+        {
+          strategy.play(session);
+        }
+        catch (RuntimeException e)
+        {
+          System.err.println(name + " stopped with an error: " + e);
+        }
+        session.end();
+        standings.add(new Result(name, session.getScore(), session.getSteps(), session.hasWon(), finishOrder.getAndIncrement()));
+        finished.incrementAndGet();
+      });
+    }
+    pool.shutdown();
+    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+  }
+
+  /**
+   * Return the current leaders. Safe to call while games are still running.
+   * <P>
+   * @param k maximum number of results
+   * @return up to k results, best first
+   */
+  public List<Result> standings(int k)
+  {
+    List<Result> top = new ArrayList<Result>();
+    Iterator<Result> it = standings.iterator();
+    while (it.hasNext() && top.size() < k)
+    {
+      top.add(it.next());
+    }
+    return top;
+  }
+
+  /**
+   * @return the number of games finished so far
+   */
+  public int finished()
+  {
+    return finished.get();
+  }
+
+  public Board getBoard()
+  {
+    return board;
+  }
+
+  /**
+   * Run a tournament of random players on one board.
+   * <P>
+   * Usage: java Tournament [seed] [players]
+   */
+  public static void main(String[] args) throws InterruptedException
+  {
+    long seed = args.length > 0 ? Long.parseLong(args[0]) : new Random().nextLong();
+    int players = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+    Board board = Board.generate(seed, 8, 5, 20, 5, 3);
+    Tournament t = new Tournament(board);
+    HeatmapAggregator heatmaps = new HeatmapAggregator();
+    t.setHeatmaps(heatmaps);
+    String[] names = new String[players];
+    Strategy[] strategies = new Strategy[players];
+    for (int i = 0; i < players; i++)
+    {
+      names[i] = "player" + i;
+      final long playerSeed = seed + i;
+      strategies[i] = session -> {
+        Random rand = new Random(playerSeed);
+        for (int step = 0; step < 200 && !session.hasWon(); step++)
+        {
+          int dir = rand.nextInt(4);
+          session.move(dir == 0 ? 1 : dir == 1 ? -1 : 0, dir == 2 ? 1 : dir == 3 ? -1 : 0);
+          if (session.getPendingTrap() >= 0) session.springTrap();
+        }
+      };
+    }
+
+    long start = System.nanoTime();
+    t.run(names, strategies, Runtime.getRuntime().availableProcessors());
+    long ms = (System.nanoTime() - start) / 1000000;
+
+    System.out.println("Board seed " + seed + ": " + t.finished() + " games in " + ms + " ms");
+    for (Result r : t.standings(10))
+    {
+      System.out.println("  " + r);
+    }
+
+    // where the players ran into walls
+    HeatmapAggregator.Heatmap heat = heatmaps.snapshot(board);
+    System.out.println("Walls hit per square:");
+    for (int row = 0; row < board.getRows(); row++)
+    {
+      StringBuilder line = new StringBuilder();
+      for (int col = 0; col < board.getCols(); col++)
+      {
+        line.append(String.format("%7d", heat.count(ScoreEvent.HIT_WALL, col + row * board.getCols())));
+      }
+      System.out.println(line);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+import java.util.ArrayDeque;
+
+/**
+ * Undo and redo stacks of board snapshots. Recording a new move clears the redo stack.
+ * The oldest snapshots are dropped once the history reaches its limit.
+ *
+ * @author PLTW
+ * @version 1.0
+ */
+public class UndoHistory
+{
+  private static final int DEFAULT_LIMIT = 10000;
+
+  private final int limit;
+  private final ArrayDeque<BoardSnapshot> undo = new ArrayDeque<BoardSnapshot>();
+  private final ArrayDeque<BoardSnapshot> redo = new ArrayDeque<BoardSnapshot>();
+
+  public UndoHistory()
+  {
+    this(DEFAULT_LIMIT);
+  }
+
+  /**
+   * @param limit maximum number of moves that can be undone
+   */
+  public UndoHistory(int limit)
+  {
+    this.limit = limit;
+  }
+
+  /**
+   * Remember the state before a move.
+   * <P>
+   * @param before snapshot taken before the move
+   */
+  public void record(BoardSnapshot before)
+  {
+    undo.push(before);
+    if (undo.size() > limit)
+    {
+      undo.removeLast();
+    }
+    redo.clear();
+  }
+
+  /**
+   * Step back one move.
+   * <P>
+   * @param current snapshot of the current state, so it can be redone
+   * @return the state to restore, or null if there is nothing to undo
+   */
+  public BoardSnapshot undo(BoardSnapshot current)
+  {
+    if (undo.isEmpty()) return null;
+    redo.push(current);
+    return undo.pop();
+  }
+
+  /**
+   * Step forward one undone move.
+   * <P>
+   * @param current snapshot of the current state, so it can be undone again
+   * @return the state to restore, or null if there is nothing to redo
+   */
+  public BoardSnapshot redo(BoardSnapshot current)
+  {
+    if (redo.isEmpty()) return null;
+    undo.push(current);
+    return redo.pop();
+  }
+
+  /**
+   * @return the most recently recorded snapshot, or null
+   */
+  public BoardSnapshot latest()
+  {
+    return undo.peek();
+  }
+
+  /**
+   * Forget all moves, for example when a new board is created.
+   */
+  public void clear()
+  {
+    undo.clear();
+    redo.clear();
+  }
+}
@@ -43,6 +43,91 @@ import java.util.Scanner;
         return input;
     }
     
+    /**
+     * Like getValidInput, but the command may be followed by a positive
+     * number, as in "jr 3". Extra spaces are removed.
+     * <P>
+     * @return the valid command the user entered, with its number if given
+     */
+    public static String getValidCommand(String[] validInputs)
+    {
+        while (true)
+        {
+            String input = getLine().trim().toLowerCase();
+            String[] parts = input.split("\\s+");
+            boolean valid = parts.length <= 2;
+            if (valid && parts.length == 2)
+                valid = parts[1].matches("[1-9][0-9]{0,2}");
+            if (valid)
+            {
+                for(String str : validInputs)
+                {
+                    if(parts[0].equals(str.toLowerCase()))
+                        return parts.length == 2 ? parts[0] + " " + parts[1] : parts[0];
+                }
+            }
+            System.out.print("Invalid input. Please try again\n>");
+        }
+    }
+    
+    /**
+     * Like getValidCommand, but the line may hold several commands
+     * separated by commas or spaces, as in "r,r,d,jr" or "right 3, jr".
+     * A number belongs to the command before it.
+     * Commands are returned as typed, so a command should mean the same
+     * alone as in a chain.
+     * <P>
+     * @return the valid commands the user entered, in order, each with its
+     *         number if given
+     */
+    public static String[] getValidCommands(String[] validInputs)
+    {
+        while (true)
+        {
+            String[] commands = parseCommands(getLine(), validInputs);
+            if (commands != null)
+                return commands;
+            System.out.print("Invalid input. Please try again\n>");
+        }
+    }
+
+    /**
+     * Split a line into commands the way getValidCommands does.
+     * <P>
+     * @return the commands, or null if the line has no commands, an
+     *         unknown command, or a number that does not follow a command
+     */
+    public static String[] parseCommands(String line, String[] validInputs)
+    {
+        String[] tokens = line.trim().toLowerCase().split("[\\s,]+");
+        java.util.List<String> commands = new java.util.ArrayList<String>();
+        // true once the last command has its number
+        boolean numbered = true;
+        for (String token : tokens)
+        {
+            if (token.matches("[1-9][0-9]{0,2}"))
+            {
+                if (numbered)
+                    return null;
+                int last = commands.size() - 1;
+                commands.set(last, commands.get(last) + " " + token);
+                numbered = true;
+                continue;
+            }
+            boolean valid = false;
+            for(String str : validInputs)
+            {
+                if(token.equals(str.toLowerCase()))
+                    valid = true;
+            }
+            if (!valid)
+                return null;
+            commands.add(token);
+            numbered = false;
+        }
+        return commands.isEmpty() ? null : commands.toArray(new String[0]);
+    }
+    
     public static String getLine()
     {
         Scanner s = new Scanner(System.in);